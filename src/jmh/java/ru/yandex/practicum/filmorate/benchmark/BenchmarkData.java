@@ -0,0 +1,162 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Генерация воспроизводимых наборов данных для бенчмарков.
+ * <p>
+ * Лайки распределены по степенному закону: фильм с рангом r получает users / r^exponent лайков,
+ * так что небольшая голова собирает большую часть лайков, как в реальном каталоге.
+ */
+public final class BenchmarkData {
+    public static final long SEED = 42;
+    public static final double LIKES_EXPONENT = 1.0;
+
+    private static final int CHUNK = 10_000;
+    private static final int H2_DEFAULT_QUERY_CACHE_SIZE = 8;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Новая in-memory база H2, приведённая миграциями приложения к текущей схеме.
+     */
+    public static HikariDataSource createDatabase(String name) {
+        return createDatabase(name, 4, H2_DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    /**
+     * То же с пулом фиксированного размера и заданным кэшем разобранных запросов H2 на соединение.
+     */
+    public static HikariDataSource createDatabase(String name, int poolSize, int queryCacheSize) {
+        String url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+        // Flyway держит два соединения сразу, поэтому миграции идут мимо пула, который может быть из одного
+        Flyway.configure().dataSource(url, "sa", null).load().migrate();
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(poolSize);
+        dataSource.setMinimumIdle(poolSize);
+        dataSource.addDataSourceProperty("QUERY_CACHE_SIZE", String.valueOf(queryCacheSize));
+        dataSource.addDataSourceProperty("LAZY_QUERY_EXECUTION", "1");
+        return dataSource;
+    }
+
+    public static List<Long> seedUsers(UserStorage storage, int count) {
+        List<Long> ids = new ArrayList<>(count);
+        List<User> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < count; i++) {
+            chunk.add(new User(null, "user" + i + "@example.com", "user" + i, "user" + i,
+                    LocalDate.of(1990, 1, 1).plusDays(i % 10_000), null, null));
+            if (chunk.size() == CHUNK || i == count - 1) {
+                storage.addAll(chunk).forEach(user -> ids.add(user.getId()));
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+        return ids;
+    }
+
+    public static List<Long> seedFilms(FilmStorage storage, int count) {
+        Random random = new Random(SEED);
+        List<Long> ids = new ArrayList<>(count);
+        List<Film> chunk = new ArrayList<>(CHUNK);
+        for (int i = 0; i < count; i++) {
+            Film film = new Film();
+            film.setName("Film " + i);
+            film.setDescription("Description " + i);
+            film.setReleaseDate(LocalDate.of(1950, 1, 1).plusDays(random.nextInt(27_000)));
+            film.setDuration(60 + random.nextInt(120));
+            film.setMpaRating(new MpaRating(1L + random.nextInt(5), null));
+            chunk.add(film);
+            if (chunk.size() == CHUNK || i == count - 1) {
+                storage.addAll(chunk).forEach(added -> ids.add(added.getId()));
+                chunk = new ArrayList<>(CHUNK);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Пишет лайки пакетами напрямую в film_likes и пересчитывает счётчики фильмов.
+     */
+    public static void seedLikes(JdbcTemplate jdbcTemplate, FilmDbStorage storage, List<Long> filmIds, List<Long> userIds) {
+        List<Object[]> batch = new ArrayList<>(CHUNK);
+        forEachPowerLawLike(filmIds, userIds, (filmId, userId) -> {
+            batch.add(new Object[] {filmId, userId});
+            if (batch.size() == CHUNK) {
+                jdbcTemplate.batchUpdate("INSERT INTO film_likes (film_id, user_id) VALUES (?, ?)", batch);
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO film_likes (film_id, user_id) VALUES (?, ?)", batch);
+        }
+        storage.rebuildLikeCounters();
+    }
+
+    public static void seedLikes(FilmStorage storage, List<Long> filmIds, List<Long> userIds) {
+        forEachPowerLawLike(filmIds, userIds, storage::likeFilm);
+    }
+
+    /**
+     * Друзья пользователя — подряд идущие id со случайного смещения, чтобы списки частично пересекались.
+     */
+    public static void seedFriends(JdbcTemplate jdbcTemplate, long userId, List<Long> userIds, int friends, Random random) {
+        List<Object[]> batch = new ArrayList<>(friends);
+        int offset = random.nextInt(userIds.size());
+        for (int i = 0; batch.size() < friends && i < userIds.size(); i++) {
+            long friendId = userIds.get((offset + i) % userIds.size());
+            if (friendId != userId) {
+                batch.add(new Object[] {userId, friendId});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", batch);
+    }
+
+    public static void seedFriends(UserStorage storage, long userId, List<Long> userIds, int friends, Random random) {
+        int offset = random.nextInt(userIds.size());
+        int added = 0;
+        for (int i = 0; added < friends && i < userIds.size(); i++) {
+            long friendId = userIds.get((offset + i) % userIds.size());
+            if (friendId != userId) {
+                storage.addFriend(userId, friendId);
+                added++;
+            }
+        }
+    }
+
+    private static void forEachPowerLawLike(List<Long> filmIds, List<Long> userIds, LikeConsumer consumer) {
+        Random random = new Random(SEED);
+        List<Long> ranked = new ArrayList<>(filmIds);
+        Collections.shuffle(ranked, random);
+        for (int rank = 1; rank <= ranked.size(); rank++) {
+            int likes = (int) (userIds.size() / Math.pow(rank, LIKES_EXPONENT));
+            if (likes == 0) {
+                break;
+            }
+            int offset = random.nextInt(userIds.size());
+            for (int i = 0; i < likes; i++) {
+                consumer.accept(ranked.get(rank - 1), userIds.get((offset + i) % userIds.size()));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LikeConsumer {
+        void accept(long filmId, long userId);
+    }
+}
@@ -0,0 +1,100 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность чтений через пул соединений разного размера и кэш разобранных запросов H2.
+ * <p>
+ * Потоков больше, чем соединений в малых пулах: видно, с какого размера пул перестаёт быть узким местом
+ * и рост упирается во встроенную базу. Смесь чтений выполняет больше разных запросов, чем помещается
+ * в кэш H2 по умолчанию (8), поэтому queryCacheSize=8 показывает цену повторного разбора SQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConnectionPoolBenchmark {
+    @Param({"1", "2", "4", "8", "16"})
+    private int poolSize;
+
+    @Param({"8", "128"})
+    private int queryCacheSize;
+
+    @Param("10000")
+    private int films;
+
+    @Param("1000")
+    private int users;
+
+    private HikariDataSource dataSource;
+    private FilmDbStorage filmStorage;
+    private UserDbStorage userStorage;
+    private List<Long> filmIds;
+    private List<Long> userIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = BenchmarkData.createDatabase("pool_" + poolSize + "_" + queryCacheSize, poolSize,
+                queryCacheSize);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        filmStorage = new FilmDbStorage(jdbcTemplate);
+        userStorage = new UserDbStorage(jdbcTemplate);
+        userIds = BenchmarkData.seedUsers(userStorage, users);
+        filmIds = BenchmarkData.seedFilms(filmStorage, films);
+        BenchmarkData.seedLikes(jdbcTemplate, filmStorage, filmIds, userIds);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    public Optional<Film> getById() {
+        return filmStorage.getById(filmIds.get(ThreadLocalRandom.current().nextInt(filmIds.size())));
+    }
+
+    /**
+     * Чтения страницы фильма: сам фильм, пользователь, лайк и несколько вариантов популярных.
+     */
+    @Benchmark
+    public void readMix(Blackhole blackhole) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long filmId = filmIds.get(random.nextInt(filmIds.size()));
+        long userId = userIds.get(random.nextInt(userIds.size()));
+        blackhole.consume(filmStorage.getById(filmId));
+        blackhole.consume(userStorage.getById(userId));
+        blackhole.consume(filmStorage.isLiked(filmId, userId));
+        blackhole.consume(filmStorage.getPopular(10));
+        blackhole.consume(filmStorage.getPopular(10, null, 1L + random.nextInt(5), null));
+        blackhole.consume(filmStorage.getPopular(10, null, null, 1950 + random.nextInt(70)));
+        blackhole.consume(userStorage.getFriends(userId));
+    }
+}
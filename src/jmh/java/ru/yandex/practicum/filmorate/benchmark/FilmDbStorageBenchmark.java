@@ -0,0 +1,96 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Горячие пути FilmDbStorage на засеянной базе H2.
+ * <p>
+ * Хранилище создаётся без Spring-прокси, поэтому like/unlike выполняются в режиме автофиксации.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FilmDbStorageBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int films;
+
+    @Param("10000")
+    private int users;
+
+    private HikariDataSource dataSource;
+    private FilmDbStorage filmStorage;
+    private List<Long> filmIds;
+    private long likerId;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = BenchmarkData.createDatabase("film_storage_" + films);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        filmStorage = new FilmDbStorage(jdbcTemplate);
+        UserDbStorage userStorage = new UserDbStorage(jdbcTemplate);
+        List<Long> userIds = BenchmarkData.seedUsers(userStorage, users);
+        filmIds = BenchmarkData.seedFilms(filmStorage, films);
+        BenchmarkData.seedLikes(jdbcTemplate, filmStorage, filmIds, userIds);
+        likerId = userStorage.add(new User(null, "liker@example.com", "liker", "liker",
+                LocalDate.of(1990, 1, 1), null, null)).getId();
+        random = new Random(BenchmarkData.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<Film> getPopular() {
+        return filmStorage.getPopular(10);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Collection<Film> getAll() {
+        return filmStorage.getAll();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void streamAll(Blackhole blackhole) {
+        filmStorage.streamAll(blackhole::consume);
+    }
+
+    @Benchmark
+    public void likeAndUnlike() {
+        long filmId = filmIds.get(random.nextInt(filmIds.size()));
+        filmStorage.likeFilm(filmId, likerId);
+        filmStorage.unlikeFilm(filmId, likerId);
+    }
+}
@@ -0,0 +1,133 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.FilmorateApplication;
+import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузочный тест HTTP-слоя: платформенные потоки Tomcat против виртуальных с ограничителем соединений.
+ * <p>
+ * Приложение поднимается целиком на случайном порту и засеянной in-memory базе, клиентских потоков
+ * больше, чем потоков Tomcat по умолчанию (200). Режим SampleTime даёт перцентили задержки (p0.99),
+ * Throughput — пропускную способность; сравнивать стоит строки с разными значениями {@code virtualThreads}.
+ * Ответы 503 ограничителя соединений не прерывают прогон, а считаются отдельно счётчиком {@code rejected}
+ * рядом с успешными {@code ok}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(400)
+@Fork(1)
+public class HttpLoadBenchmark {
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param("10000")
+    private int films;
+
+    @Param("2000")
+    private int users;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI popularUri;
+    private String filmUriPrefix;
+    private List<Long> filmIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Аргументы командной строки перекрывают application.properties, в отличие от properties() билдера
+        context = new SpringApplicationBuilder(FilmorateApplication.class).run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.datasource.url=jdbc:h2:mem:http_load",
+                "--logging.level.root=WARN");
+        FilmDbStorage filmStorage = context.getBean(FilmDbStorage.class);
+        UserDbStorage userStorage = context.getBean(UserDbStorage.class);
+        filmIds = BenchmarkData.seedFilms(filmStorage, films);
+        List<Long> userIds = BenchmarkData.seedUsers(userStorage, users);
+        BenchmarkData.seedLikes(context.getBean(JdbcTemplate.class), filmStorage, filmIds, userIds);
+
+        String baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        popularUri = URI.create(baseUri + "/films/popular?size=10");
+        filmUriPrefix = baseUri + "/films/";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        context.close();
+    }
+
+    /**
+     * Исходы запросов потока за итерацию; JMH выводит поля как дополнительные метрики в ops/время.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Responses {
+        public long ok;
+        public long rejected;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            ok = 0;
+            rejected = 0;
+        }
+    }
+
+    @Benchmark
+    public int getPopular(Responses responses) throws IOException, InterruptedException {
+        return send(popularUri, responses);
+    }
+
+    @Benchmark
+    public int getFilmById(Responses responses) throws IOException, InterruptedException {
+        long filmId = filmIds.get(ThreadLocalRandom.current().nextInt(filmIds.size()));
+        return send(URI.create(filmUriPrefix + filmId), responses);
+    }
+
+    private int send(URI uri, Responses responses) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() == 503) {
+            // Отказ ограничителя под перегрузкой — ожидаемый исход, а не ошибка прогона
+            responses.rejected++;
+            return 0;
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode() + " для " + uri);
+        }
+        responses.ok++;
+        return response.body().length;
+    }
+}
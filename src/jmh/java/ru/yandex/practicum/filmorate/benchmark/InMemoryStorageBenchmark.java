@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Те же операции на in-memory хранилищах с тем же распределением лайков, что и в базе.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InMemoryStorageBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int films;
+
+    @Param("10000")
+    private int users;
+
+    @Param("1000")
+    private int friends;
+
+    private InMemoryFilmStorage filmStorage;
+    private InMemoryUserStorage userStorage;
+    private List<Long> filmIds;
+    private long likerId;
+    private long userId;
+    private long otherUserId;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        filmStorage = new InMemoryFilmStorage();
+        userStorage = new InMemoryUserStorage();
+        List<Long> userIds = BenchmarkData.seedUsers(userStorage, users);
+        filmIds = BenchmarkData.seedFilms(filmStorage, films);
+        BenchmarkData.seedLikes(filmStorage, filmIds, userIds);
+        likerId = userStorage.add(new User(null, "liker@example.com", "liker", "liker",
+                LocalDate.of(1990, 1, 1), null, null)).getId();
+        random = new Random(BenchmarkData.SEED);
+        userId = userIds.get(0);
+        otherUserId = userIds.get(1);
+        BenchmarkData.seedFriends(userStorage, userId, userIds, friends, random);
+        BenchmarkData.seedFriends(userStorage, otherUserId, userIds, friends, random);
+    }
+
+    @Benchmark
+    public List<Film> getPopular() {
+        return filmStorage.getPopular(10);
+    }
+
+    @Benchmark
+    public void likeAndUnlike() {
+        long filmId = filmIds.get(random.nextInt(filmIds.size()));
+        filmStorage.likeFilm(filmId, likerId);
+        filmStorage.unlikeFilm(filmId, likerId);
+    }
+
+    @Benchmark
+    public List<User> getCommonFriends() {
+        return userStorage.getCommonFriends(userId, otherUserId);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.storage.LongHashSet;
+import ru.yandex.practicum.filmorate.storage.SortedLongSet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Лайк и его снятие в множестве пользователей фильма: сдвиг массива в {@link SortedLongSet}
+ * растёт с размером множества, хеш-таблица {@link LongHashSet} от размера не зависит.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LongSetBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int likes;
+
+    private SortedLongSet sorted;
+    private LongHashSet hashed;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sorted = new SortedLongSet();
+        hashed = new LongHashSet();
+        // Чётные id заняты, нечётные свободны: каждая операция вставляет в середину множества
+        for (long userId = 2; userId <= 2L * likes; userId += 2) {
+            sorted.add(userId);
+            hashed.add(userId);
+        }
+        random = new Random(BenchmarkData.SEED);
+    }
+
+    @Benchmark
+    public boolean sortedLikeAndUnlike() {
+        long userId = 2L * random.nextInt(likes) + 1;
+        return sorted.add(userId) && sorted.remove(userId);
+    }
+
+    @Benchmark
+    public boolean hashedLikeAndUnlike() {
+        long userId = 2L * random.nextInt(likes) + 1;
+        return hashed.add(userId) && hashed.remove(userId);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.yandex.practicum.filmorate.service.RecommendationProperties;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Перестройка индекса рекомендаций и чтение готовых соседей фильма и рекомендаций пользователя.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecommendationServiceBenchmark {
+    @Param({"10000", "100000"})
+    private int films;
+
+    @Param("5000")
+    private int users;
+
+    private RecommendationService recommendations;
+    private List<Long> filmIds;
+    private List<Long> userIds;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        InMemoryFilmStorage filmStorage = new InMemoryFilmStorage();
+        userIds = BenchmarkData.seedUsers(new InMemoryUserStorage(), users);
+        filmIds = BenchmarkData.seedFilms(filmStorage, films);
+        BenchmarkData.seedLikes(filmStorage, filmIds, userIds);
+        recommendations = new RecommendationService(filmStorage, new RecommendationProperties());
+        recommendations.rebuild();
+        random = new Random(BenchmarkData.SEED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        recommendations.stop();
+    }
+
+    @Benchmark
+    public List<Long> getSimilarFilms() {
+        return recommendations.getSimilarFilms(filmIds.get(random.nextInt(filmIds.size())), 10);
+    }
+
+    @Benchmark
+    public List<Long> getRecommendations() {
+        return recommendations.getRecommendations(userIds.get(random.nextInt(userIds.size())), 10);
+    }
+}
@@ -0,0 +1,70 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.UserDbStorage;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общие друзья двух пользователей с тысячами друзей через сервис и UserDbStorage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+    @Param("50000")
+    private int users;
+
+    @Param({"1000", "10000"})
+    private int friends;
+
+    private HikariDataSource dataSource;
+    private UserService userService;
+    private long userId;
+    private long otherUserId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = BenchmarkData.createDatabase("user_service_" + friends);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        UserDbStorage userStorage = new UserDbStorage(jdbcTemplate);
+        userService = new UserService(userStorage, 500);
+        List<Long> userIds = BenchmarkData.seedUsers(userStorage, users);
+        Random random = new Random(BenchmarkData.SEED);
+        userId = userIds.get(0);
+        otherUserId = userIds.get(1);
+        BenchmarkData.seedFriends(jdbcTemplate, userId, userIds, friends, random);
+        BenchmarkData.seedFriends(jdbcTemplate, otherUserId, userIds, friends, random);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<User> getCommonFriends() {
+        return userService.getCommonFriends(userId, otherUserId);
+    }
+}
@@ -0,0 +1,64 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Индексы для обратных выборок и соединений по внешним ключам.
+ * <p>
+ * Индекс создаётся, только если в таблице ещё нет индекса, начинающегося с того же столбца:
+ * H2 сам индексирует столбцы внешних ключей, и дубликат лишь замедлил бы запись.
+ * На СУБД без автоматических индексов внешних ключей миграция создаёт их явно.
+ */
+public class V4__Secondary_indexes extends BaseJavaMigration {
+    private static final List<IndexDefinition> INDEXES = List.of(
+            new IndexDefinition("idx_film_likes_user_id", "film_likes", "user_id"),
+            new IndexDefinition("idx_friends_friend_id", "friends", "friend_id"),
+            new IndexDefinition("idx_film_genres_genre_id", "film_genres", "genre_id"),
+            new IndexDefinition("idx_films_rating_id", "films", "rating_id")
+    );
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        Connection connection = context.getConnection();
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (IndexDefinition index : INDEXES) {
+            if (hasLeadingIndex(connection, metaData, index)) {
+                continue;
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE INDEX " + index.name() + " ON " + index.table() + " (" + index.column() + ")");
+            }
+        }
+    }
+
+    private static boolean hasLeadingIndex(Connection connection, DatabaseMetaData metaData, IndexDefinition index)
+            throws SQLException {
+        try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(),
+                identifier(metaData, index.table()), false, true)) {
+            while (rs.next()) {
+                if (rs.getShort("ORDINAL_POSITION") == 1 && index.column().equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String identifier(DatabaseMetaData metaData, String name) throws SQLException {
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return name.toUpperCase();
+        }
+        return metaData.storesLowerCaseIdentifiers() ? name.toLowerCase() : name;
+    }
+
+    private record IndexDefinition(String name, String table, String column) {
+    }
+}
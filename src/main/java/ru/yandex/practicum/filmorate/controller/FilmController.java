@@ -1,15 +1,25 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+import ru.yandex.practicum.filmorate.service.FilmJsonCache;
+import ru.yandex.practicum.filmorate.service.FilmSearchIndex;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -17,12 +27,37 @@ import java.util.List;
 @Slf4j
 @RequiredArgsConstructor
 public class FilmController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public Collection<Film> findAll() {
+    public ResponseEntity<StreamingResponseBody> findAll() {
         log.info("Получение всех фильмов");
-        return filmService.getAll();
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(JsonArrayStream.of(objectMapper, filmService::streamAll));
+    }
+
+    @GetMapping(params = "size")
+    public ResponseEntity<List<Film>> findPage(@RequestParam(defaultValue = "0") long cursor, @RequestParam int size) {
+        log.info("Получение страницы фильмов после id: {}, размер: {}", cursor, size);
+        List<Film> page = filmService.getPage(cursor, size);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == size) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+        }
+        return response.body(page);
+    }
+
+    @GetMapping(params = "ids")
+    public ResponseEntity<byte[]> findByIds(@RequestParam List<Long> ids) {
+        log.info("Получение {} фильмов по id", ids.size());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(filmService.getJsonByIds(ids));
     }
 
     @PostMapping
@@ -32,11 +67,33 @@ public class FilmController {
         return ResponseEntity.status(HttpStatus.CREATED).body(createdFilm);
     }
 
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ImportResult> importAll(InputStream body) throws IOException {
+        log.info("Массовая загрузка фильмов");
+        try (MappingIterator<Film> films = objectMapper.readerFor(Film.class).readValues(body)) {
+            return ResponseEntity.ok(filmService.importFilms(films));
+        }
+    }
+
+    /**
+     * При If-Match фильм обновляется, только если ETag совпал с текущим; иначе ответ 412.
+     */
     @PutMapping
-    public ResponseEntity<Film> update(@RequestBody Film newFilm) {
+    public ResponseEntity<Film> update(@RequestBody Film newFilm,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                       List<String> ifMatch) {
         log.info("Обновление фильма: {}", newFilm);
-        Film updatedFilm = filmService.update(newFilm);
-        return ResponseEntity.ok(updatedFilm);
+        Film updatedFilm = filmService.update(newFilm, ifMatch);
+        return ResponseEntity.ok().eTag(FilmService.eTag(updatedFilm)).body(updatedFilm);
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<Film> patch(@PathVariable long id, @RequestBody FilmPatch patch,
+                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                      List<String> ifMatch) {
+        log.info("Частичное обновление фильма с id: {}: {}", id, patch);
+        Film patchedFilm = filmService.patch(id, patch, ifMatch);
+        return ResponseEntity.ok().eTag(FilmService.eTag(patchedFilm)).body(patchedFilm);
     }
 
     @PutMapping("{id}/like/{userId}")
@@ -63,22 +120,54 @@ public class FilmController {
         }
     }
 
+    /**
+     * Отдаёт готовый JSON из кэша. При совпадении If-None-Match с ETag Spring отвечает 304 без тела.
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<Film> get(@PathVariable long id) {
+    public ResponseEntity<byte[]> get(@PathVariable long id) {
         log.info("Получение фильма с id: {}", id);
         try {
-            Film film = filmService.getById(id);
-            return ResponseEntity.ok(film);
+            FilmJsonCache.FilmJson film = filmService.getJsonById(id);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .eTag(film.eTag())
+                    .body(film.json());
         } catch (NotFoundException e) {
             log.error("Ошибка: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
     }
 
+    @GetMapping("/search")
+    public ResponseEntity<byte[]> search(@RequestParam String query,
+                                         @RequestParam(required = false) Integer genreId,
+                                         @RequestParam(required = false) Long mpaId,
+                                         @RequestParam(required = false) Integer year,
+                                         @RequestParam(defaultValue = "0") int offset,
+                                         @RequestParam(defaultValue = "20") int size) {
+        log.info("Поиск фильмов по запросу: {}", query);
+        FilmSearchIndex.Hits hits = filmService.search(query, genreId, mpaId, year, offset, size);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(TOTAL_COUNT_HEADER, String.valueOf(hits.total()))
+                .body(filmService.getJsonArray(hits.filmIds()));
+    }
+
+    @GetMapping("/trending")
+    public ResponseEntity<byte[]> getTrending(@RequestParam(defaultValue = "10") int size) {
+        log.info("Получение {} трендовых фильмов", size);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(filmService.getTrendingJson(size));
+    }
+
     @GetMapping("/popular")
-    public ResponseEntity<List<Film>> getMostPopular(@RequestParam(defaultValue = "10") int size) {
+    public ResponseEntity<List<Film>> getMostPopular(@RequestParam(defaultValue = "10") int size,
+                                                     @RequestParam(required = false) Integer genreId,
+                                                     @RequestParam(required = false) Long mpaId,
+                                                     @RequestParam(required = false) Integer year) {
         log.info("Получение {} самых популярных фильмов", size);
-        List<Film> popularFilms = filmService.getMostPopular(size);
+        List<Film> popularFilms = filmService.getMostPopular(size, genreId, mpaId, year);
         return ResponseEntity.ok(popularFilms);
     }
 
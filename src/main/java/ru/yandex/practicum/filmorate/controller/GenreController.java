@@ -8,28 +8,28 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.service.ReferenceDataCache;
 
 import java.util.Collection;
 
 @RestController
 @RequestMapping("/genres")
 public class GenreController {
-    private final GenreDbStorage genreStorage;
+    private final ReferenceDataCache referenceData;
 
     @Autowired
-    public GenreController(GenreDbStorage genreStorage) {
-        this.genreStorage = genreStorage;
+    public GenreController(ReferenceDataCache referenceData) {
+        this.referenceData = referenceData;
     }
 
     @GetMapping
     public Collection<Genre> getAllGenres() {
-        return genreStorage.getAllGenres();
+        return referenceData.getAllGenres();
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<Genre> getGenreById(@PathVariable int id) {
-        return genreStorage.getGenreById(id)
+        return referenceData.getGenreById(id)
                 .map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
@@ -8,28 +8,28 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import ru.yandex.practicum.filmorate.model.MpaRating;
-import ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage;
+import ru.yandex.practicum.filmorate.service.ReferenceDataCache;
 
 import java.util.Collection;
 
 @RestController
 @RequestMapping("/mpa")
 public class MpaRatingController {
-    private final MpaRatingDbStorage mpaStorage;
+    private final ReferenceDataCache referenceData;
 
     @Autowired
-    public MpaRatingController(MpaRatingDbStorage mpaStorage) {
-        this.mpaStorage = mpaStorage;
+    public MpaRatingController(ReferenceDataCache referenceData) {
+        this.referenceData = referenceData;
     }
 
     @GetMapping
     public Collection<MpaRating> getAllMpaRatings() {
-        return mpaStorage.getAllMpaRatings();
+        return referenceData.getAllMpaRatings();
     }
 
     @GetMapping("/{id}")
     public ResponseEntity<MpaRating> getMpaRatingById(@PathVariable Long id) {
-        return mpaStorage.getMpaRatingById(id)
+        return referenceData.getMpaRatingById(id)
                 .map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
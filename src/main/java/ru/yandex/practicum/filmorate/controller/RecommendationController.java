@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.filmorate.service.FilmService;
+
+@RestController
+@Slf4j
+@RequiredArgsConstructor
+public class RecommendationController {
+    private final FilmService filmService;
+
+    @GetMapping("/films/{id}/similar")
+    public ResponseEntity<byte[]> getSimilar(@PathVariable long id, @RequestParam(defaultValue = "10") int count) {
+        log.info("Получение фильмов, похожих на фильм с id: {}", id);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(filmService.getSimilarJson(id, count));
+    }
+
+    @GetMapping("/users/{id}/recommendations")
+    public ResponseEntity<byte[]> getRecommendations(@PathVariable long id,
+                                                     @RequestParam(defaultValue = "10") int count) {
+        log.info("Получение рекомендаций для пользователя с id: {}", id);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(filmService.getRecommendationsJson(id, count));
+    }
+}
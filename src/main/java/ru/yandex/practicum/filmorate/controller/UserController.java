@@ -1,15 +1,23 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.ImportResult;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 import ru.yandex.practicum.filmorate.service.UserService;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -17,12 +25,28 @@ import java.util.List;
 @Slf4j
 @RequiredArgsConstructor
 public class UserController {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     @GetMapping
-    public ResponseEntity<Collection<User>> findAll() {
+    public ResponseEntity<StreamingResponseBody> findAll() {
         log.info("Получение всех пользователей");
-        return ResponseEntity.ok(userService.getAll());
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(JsonArrayStream.of(objectMapper, userService::streamAll));
+    }
+
+    @GetMapping(params = "size")
+    public ResponseEntity<List<User>> findPage(@RequestParam(defaultValue = "0") long cursor, @RequestParam int size) {
+        log.info("Получение страницы пользователей после id: {}, размер: {}", cursor, size);
+        List<User> page = userService.getPage(cursor, size);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == size) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+        }
+        return response.body(page);
     }
 
     @PostMapping
@@ -32,11 +56,33 @@ public class UserController {
         return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
     }
 
+    @PostMapping(value = "/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ImportResult> importAll(InputStream body) throws IOException {
+        log.info("Массовая загрузка пользователей");
+        try (MappingIterator<User> users = objectMapper.readerFor(User.class).readValues(body)) {
+            return ResponseEntity.ok(userService.importUsers(users));
+        }
+    }
+
+    /**
+     * При If-Match пользователь обновляется, только если ETag совпал с текущей версией; иначе ответ 412.
+     */
     @PutMapping
-    public ResponseEntity<User> update(@RequestBody User newUser) {
+    public ResponseEntity<User> update(@RequestBody User newUser,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                       List<String> ifMatch) {
         log.info("Обновление пользователя: {}", newUser);
-        User updatedUser = userService.update(newUser);
-        return ResponseEntity.ok(updatedUser);
+        User updatedUser = userService.update(newUser, ifMatch);
+        return ResponseEntity.ok().eTag(UserService.eTag(updatedUser)).body(updatedUser);
+    }
+
+    @PatchMapping("/{id}")
+    public ResponseEntity<User> patch(@PathVariable long id, @RequestBody UserPatch patch,
+                                      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false)
+                                      List<String> ifMatch) {
+        log.info("Частичное обновление пользователя с id: {}: {}", id, patch);
+        User patchedUser = userService.patch(id, patch, ifMatch);
+        return ResponseEntity.ok().eTag(UserService.eTag(patchedUser)).body(patchedUser);
     }
 
     @PutMapping("{id}/friends/{friendId}")
@@ -58,7 +104,7 @@ public class UserController {
         log.info("Получение пользователя с id: {}", id);
         try {
             User user = userService.getById(id);
-            return ResponseEntity.ok(user);
+            return ResponseEntity.ok().eTag(UserService.eTag(user)).body(user);
         } catch (NotFoundException e) {
             log.error("Ошибка при получении пользователя с id: {}", id, e);
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
@@ -72,6 +118,13 @@ public class UserController {
         return ResponseEntity.ok(commonFriends);
     }
 
+    @GetMapping("{id}/suggestions")
+    public ResponseEntity<List<User>> getSuggestions(@PathVariable long id,
+                                                     @RequestParam(defaultValue = "10") int count) {
+        log.info("Получение рекомендаций друзей для пользователя с id: {}", id);
+        return ResponseEntity.ok(userService.getFriendSuggestions(id, count));
+    }
+
     @GetMapping("{id}/friends")
     public ResponseEntity<List<User>> getAll(@PathVariable long id) {
         log.info("Получение списка друзей пользователя с id: {}", id);
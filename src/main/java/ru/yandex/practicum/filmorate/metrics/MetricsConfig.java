@@ -0,0 +1,66 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+    private final QueryCountInterceptor queryCountInterceptor;
+
+    public MetricsConfig(QueryCountInterceptor queryCountInterceptor) {
+        this.queryCountInterceptor = queryCountInterceptor;
+    }
+
+    /**
+     * Оборачивает пул соединений счётчиком выражений. Метрики Hikari продолжают работать:
+     * Spring Boot разворачивает DelegatingDataSource до исходного пула.
+     */
+    @Bean
+    public static BeanPostProcessor statementCountingDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof StatementCountingDataSource)) {
+                    return new StatementCountingDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder jdbcStatementsMeterBinder(DataSource dataSource) {
+        return registry -> {
+            // Счётчик может быть обёрнут другими источниками данных, например ограничителем соединений
+            StatementCountingDataSource countingDataSource = unwrap(dataSource);
+            if (countingDataSource != null) {
+                FunctionCounter.builder("filmorate.jdbc.statements", countingDataSource,
+                                StatementCountingDataSource::getTotalStatements)
+                        .description("Подготовленных и выполненных SQL-выражений")
+                        .register(registry);
+            }
+        };
+    }
+
+    private static StatementCountingDataSource unwrap(DataSource dataSource) {
+        try {
+            return dataSource.isWrapperFor(StatementCountingDataSource.class)
+                    ? dataSource.unwrap(StatementCountingDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(queryCountInterceptor);
+    }
+}
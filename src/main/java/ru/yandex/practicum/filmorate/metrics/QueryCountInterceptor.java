@@ -0,0 +1,52 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Число SQL-выражений на HTTP-запрос, по шаблону URI.
+ * <p>
+ * Для потоковых ответов учитываются выражения потока обработки запроса; запись тела
+ * в асинхронном потоке попадает только в общий счётчик {@code filmorate.jdbc.statements}.
+ */
+@Component
+public class QueryCountInterceptor implements AsyncHandlerInterceptor {
+    static final String SUMMARY_NAME = "filmorate.jdbc.statements.per.request";
+
+    private final MeterRegistry registry;
+
+    public QueryCountInterceptor(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        StatementCountingDataSource.beginScope();
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        // Поток запроса возвращается в пул: область учёта закрывается без записи метрики
+        StatementCountingDataSource.endScope();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        int statements = StatementCountingDataSource.endScope();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        DistributionSummary.builder(SUMMARY_NAME)
+                .description("SQL-выражений на HTTP-запрос")
+                .tags("method", request.getMethod(), "uri", pattern != null ? pattern.toString() : "UNKNOWN")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(statements);
+    }
+}
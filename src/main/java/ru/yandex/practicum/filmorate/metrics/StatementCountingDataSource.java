@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Источник данных, считающий подготовленные и выполненные SQL-выражения.
+ * <p>
+ * Ведёт общий счётчик для метрик и, если поток открыл область учёта, счётчик текущего HTTP-запроса.
+ */
+public class StatementCountingDataSource extends DelegatingDataSource {
+    private static final Set<String> STATEMENT_METHODS = Set.of("prepareStatement", "createStatement", "prepareCall");
+    private static final ThreadLocal<int[]> SCOPE = new ThreadLocal<>();
+
+    private final LongAdder totalStatements = new LongAdder();
+
+    public StatementCountingDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    /**
+     * Начинает учёт выражений текущего потока.
+     */
+    public static void beginScope() {
+        SCOPE.set(new int[1]);
+    }
+
+    /**
+     * Завершает учёт и возвращает число выражений с момента {@link #beginScope()}.
+     */
+    public static int endScope() {
+        int[] counter = SCOPE.get();
+        SCOPE.remove();
+        return counter == null ? 0 : counter[0];
+    }
+
+    public long getTotalStatements() {
+        return totalStatements.sum();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return countingProxy(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return countingProxy(super.getConnection(username, password));
+    }
+
+    private Connection countingProxy(Connection target) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (STATEMENT_METHODS.contains(method.getName())) {
+                        countStatement();
+                    }
+                    return invoke(target, method, args);
+                });
+    }
+
+    private void countStatement() {
+        totalStatements.increment();
+        int[] counter = SCOPE.get();
+        if (counter != null) {
+            counter[0]++;
+        }
+    }
+
+    private static Object invoke(Connection target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.yandex.practicum.filmorate.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage;
+import ru.yandex.practicum.filmorate.storage.UserStorage;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Время и объём выборки каждого метода хранилищ: {@link FilmStorage}, {@link UserStorage}
+ * и справочников {@link GenreDbStorage}, {@link MpaRatingDbStorage}.
+ * <p>
+ * Таймер {@code filmorate.storage} размечен хранилищем, методом и исходом, сводка
+ * {@code filmorate.storage.rows} — числом возвращённых строк. Для потоковых методов
+ * строки считаются по вызовам переданного потребителя. Метры создаются при первом вызове метода
+ * и дальше берутся из карты, а не регистрируются в реестре заново на каждом обращении.
+ */
+@Aspect
+@Component
+public class StorageMetricsAspect {
+    static final String TIMER_NAME = "filmorate.storage";
+    static final String ROWS_NAME = "filmorate.storage.rows";
+
+    private static final String SUCCESS = "success";
+
+    private final MeterRegistry registry;
+    private final Map<Operation, Meters> meters = new ConcurrentHashMap<>();
+
+    public StorageMetricsAspect(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // Только методы контрактов хранилищ: вспомогательные компоненты пакета storage (самопроверка,
+    // настройка пула, in-memory справочники за пределами этих методов) в метрики не попадают
+    @Around("execution(* ru.yandex.practicum.filmorate.storage.FilmStorage.*(..))"
+            + " || execution(* ru.yandex.practicum.filmorate.storage.UserStorage.*(..))"
+            + " || execution(public * ru.yandex.practicum.filmorate.storage.GenreDbStorage.*(..))"
+            + " || execution(public * ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage.*(..))")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        Meters operationMeters = meters.computeIfAbsent(
+                new Operation(joinPoint.getTarget().getClass(), joinPoint.getSignature().getName()), this::register);
+        Object[] args = joinPoint.getArgs();
+        AtomicLong streamedRows = countConsumedRows(args);
+
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = SUCCESS;
+        try {
+            Object result = joinPoint.proceed(args);
+            long rows = streamedRows != null ? streamedRows.get() : rowsOf(result);
+            if (rows >= 0) {
+                operationMeters.rows.record(rows);
+            }
+            return result;
+        } catch (Throwable e) {
+            outcome = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            sample.stop(operationMeters.timer(outcome));
+        }
+    }
+
+    private Meters register(Operation operation) {
+        String storage = operation.target().getSimpleName();
+        DistributionSummary rows = DistributionSummary.builder(ROWS_NAME)
+                .description("Строк, возвращённых методом хранилища")
+                .tags("storage", storage, "method", operation.method())
+                .register(registry);
+        return new Meters(storage, operation.method(), rows);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicLong countConsumedRows(Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Consumer<?> consumer) {
+                AtomicLong rows = new AtomicLong();
+                Consumer<Object> target = (Consumer<Object>) consumer;
+                args[i] = (Consumer<Object>) row -> {
+                    rows.incrementAndGet();
+                    target.accept(row);
+                };
+                return rows;
+            }
+        }
+        return null;
+    }
+
+    private record Operation(Class<?> target, String method) {
+    }
+
+    /**
+     * Метры одного метода хранилища; таймеры исходов-исключений создаются при первом таком исходе.
+     */
+    private final class Meters {
+        final String storage;
+        final String method;
+        final DistributionSummary rows;
+        final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+        Meters(String storage, String method, DistributionSummary rows) {
+            this.storage = storage;
+            this.method = method;
+            this.rows = rows;
+        }
+
+        Timer timer(String outcome) {
+            return timers.computeIfAbsent(outcome, ignored -> Timer.builder(TIMER_NAME)
+                    .description("Время выполнения метода хранилища")
+                    .tags("storage", storage, "method", method, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    private static long rowsOf(Object result) {
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.isPresent() ? 1 : 0;
+        }
+        return -1;
+    }
+}
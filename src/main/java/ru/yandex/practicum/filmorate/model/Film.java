@@ -29,4 +29,12 @@ public class Film {
 
     @JsonProperty("mpa")
     private MpaRating mpaRating;
+
+    @JsonIgnore
+    private int likesCount;
+
+    /**
+     * Версия строки: растёт при каждом изменении фильма, по ней проверяются условные обновления.
+     */
+    private Long version;
 }
@@ -0,0 +1,28 @@
+package ru.yandex.practicum.filmorate.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Частичное обновление фильма: записываются только переданные поля, null означает «не менять».
+ * Пустой список жанров удаляет все жанры фильма.
+ */
+@Data
+public class FilmPatch {
+    private String name;
+    private String description;
+    private LocalDate releaseDate;
+    private Integer duration;
+    private Set<Genre> genres;
+
+    @JsonProperty("mpa")
+    private MpaRating mpaRating;
+
+    /**
+     * Ожидаемая версия фильма; если задана, обновление выполняется только при совпадении.
+     */
+    private Long version;
+}
@@ -0,0 +1,15 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Отложенное изменение лайка: {@code liked = true} — лайк поставлен, {@code false} — снят.
+ */
+@Data
+@AllArgsConstructor
+public class LikeChange {
+    private long filmId;
+    private long userId;
+    private boolean liked;
+}
@@ -23,4 +23,8 @@ public class User {
     @JsonIgnore
     private Set<Long> friends = new HashSet<>();
 
+    /**
+     * Версия строки: растёт при каждом изменении пользователя, по ней проверяются условные обновления.
+     */
+    private Long version;
 }
@@ -0,0 +1,21 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+
+import java.time.LocalDate;
+
+/**
+ * Частичное обновление пользователя: записываются только переданные поля, null означает «не менять».
+ */
+@Data
+public class UserPatch {
+    private String email;
+    private String login;
+    private String name;
+    private LocalDate birthday;
+
+    /**
+     * Ожидаемая версия пользователя; если задана, обновление выполняется только при совпадении.
+     */
+    private Long version;
+}
@@ -0,0 +1,87 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.springframework.core.NestedExceptionUtils;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Потоковая загрузка записей пакетами.
+ * <p>
+ * Записи читаются из источника по одной, проверяются и копятся до размера пакета,
+ * после чего пакет пишется одним обращением к хранилищу. Ошибки проверки и записи
+ * фиксируются по номеру строки и не прерывают загрузку остальных записей.
+ */
+class BatchImporter<T> {
+    private final int batchSize;
+    private final Consumer<T> validator;
+    private final Consumer<List<T>> batchWriter;
+    private final UnaryOperator<T> singleWriter;
+
+    BatchImporter(int batchSize, Consumer<T> validator, Consumer<List<T>> batchWriter, UnaryOperator<T> singleWriter) {
+        this.batchSize = batchSize;
+        this.validator = validator;
+        this.batchWriter = batchWriter;
+        this.singleWriter = singleWriter;
+    }
+
+    ImportResult run(Iterator<T> source) {
+        ImportResult result = new ImportResult();
+        List<T> batch = new ArrayList<>(batchSize);
+        List<Integer> batchRows = new ArrayList<>(batchSize);
+        int row = 0;
+        while (true) {
+            try {
+                if (!source.hasNext()) {
+                    break;
+                }
+            } catch (RuntimeException e) {
+                // Поток дальше не читается: сохраняем то, что успели разобрать
+                result.addError(row + 1, "Не удалось прочитать запись: " + e.getMessage());
+                break;
+            }
+            row++;
+            T item;
+            try {
+                item = source.next();
+                validator.accept(item);
+            } catch (RuntimeException e) {
+                result.addError(row, e.getMessage());
+                continue;
+            }
+            batch.add(item);
+            batchRows.add(row);
+            if (batch.size() == batchSize) {
+                write(batch, batchRows, result);
+            }
+        }
+        write(batch, batchRows, result);
+        return result;
+    }
+
+    private void write(List<T> batch, List<Integer> batchRows, ImportResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batchWriter.accept(batch);
+            result.addImported(batch.size());
+        } catch (RuntimeException batchFailure) {
+            // Пакет откатился целиком — повторяем по одной записи, чтобы найти виновные строки
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    singleWriter.apply(batch.get(i));
+                    result.addImported(1);
+                } catch (RuntimeException e) {
+                    result.addError(batchRows.get(i), NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+                }
+            }
+        }
+        batch.clear();
+        batchRows.clear();
+    }
+}
@@ -0,0 +1,221 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Кэш фильмов, уже сериализованных в JSON (UTF-8), вместе с их ETag.
+ * <p>
+ * Фильмы меняются редко, а читаются постоянно: повторный запрос отдаёт готовые байты без Jackson
+ * и без обращения к базе, а запрос с совпавшим If-None-Match — только 304. Лайки в JSON фильма
+ * не входят, поэтому запись сбрасывают лишь изменение фильма и обновление справочников,
+ * названия из которых попадают в жанры и MPA рейтинг.
+ * <p>
+ * ETag — версия фильма ({@link VersionETag}), поэтому он не меняется при переименовании жанра
+ * или рейтинга: справочники меняются только миграциями, а не запросами к API.
+ */
+@Component
+@EnableConfigurationProperties(FilmJsonCacheProperties.class)
+public class FilmJsonCache {
+    private final FilmStorage filmStorage;
+    private final ObjectMapper objectMapper;
+    private final ReferenceDataCache referenceData;
+    private final FilmJsonCacheProperties properties;
+
+    // Порядок доступа: при переполнении первым вытесняется давно не читавшийся фильм
+    private final LinkedHashMap<Long, FilmJson> entries;
+    // Меняется при каждом сбросе: JSON, собранный до сброса, не должен попасть в кэш после него
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public FilmJsonCache(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                         ObjectMapper objectMapper,
+                         ReferenceDataCache referenceData,
+                         FilmJsonCacheProperties properties,
+                         MeterRegistry meterRegistry) {
+        this.filmStorage = filmStorage;
+        this.objectMapper = objectMapper;
+        this.referenceData = referenceData;
+        this.properties = properties;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, FilmJson> eldest) {
+                return size() > properties.getMaxEntries();
+            }
+        };
+
+        hits = requests(meterRegistry, "hit");
+        misses = requests(meterRegistry, "miss");
+        Gauge.builder("filmorate.cache.film.json.entries", this, FilmJsonCache::size)
+                .description("Фильмов в кэше JSON")
+                .register(meterRegistry);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("filmorate.cache.film.json.requests")
+                .description("Запросов фильма по результату обращения к кэшу JSON")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Optional<FilmJson> peek(long filmId) {
+        FilmJson cached;
+        synchronized (entries) {
+            cached = entries.get(filmId);
+        }
+        if (cached == null || cached.referenceVersion() != referenceData.getVersion()) {
+            return Optional.empty();
+        }
+        return Optional.of(cached);
+    }
+
+    /**
+     * JSON фильма: из кэша или собранный заново из хранилища.
+     */
+    public FilmJson get(long filmId) {
+        Optional<FilmJson> cached = peek(filmId);
+        if (cached.isPresent()) {
+            hits.increment();
+            return cached.get();
+        }
+        misses.increment();
+
+        long loadGeneration;
+        synchronized (entries) {
+            loadGeneration = generation;
+        }
+        long referenceVersion = referenceData.getVersion();
+        Film film = filmStorage.getById(filmId)
+                .orElseThrow(() -> new NotFoundException(String.format("Фильм с id: %d не найден", filmId)));
+        FilmJson json = serialize(film, referenceVersion);
+        if (properties.isEnabled()) {
+            synchronized (entries) {
+                if (generation == loadGeneration) {
+                    entries.put(filmId, json);
+                }
+            }
+        }
+        return json;
+    }
+
+    /**
+     * JSON найденных фильмов по id. Промахи кэша загружаются из хранилища одним пакетом.
+     */
+    public Map<Long, FilmJson> getAll(Collection<Long> filmIds) {
+        Map<Long, FilmJson> found = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long filmId : new LinkedHashSet<>(filmIds)) {
+            Optional<FilmJson> cached = peek(filmId);
+            if (cached.isPresent()) {
+                hits.increment();
+                found.put(filmId, cached.get());
+            } else {
+                missing.add(filmId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+        misses.increment(missing.size());
+
+        long loadGeneration;
+        synchronized (entries) {
+            loadGeneration = generation;
+        }
+        long referenceVersion = referenceData.getVersion();
+        Map<Long, FilmJson> loaded = new HashMap<>();
+        for (Film film : filmStorage.getByIds(missing)) {
+            loaded.put(film.getId(), serialize(film, referenceVersion));
+        }
+        if (properties.isEnabled()) {
+            synchronized (entries) {
+                if (generation == loadGeneration) {
+                    entries.putAll(loaded);
+                }
+            }
+        }
+        found.putAll(loaded);
+        return found;
+    }
+
+    /**
+     * JSON-массив фильмов в заданном порядке, склеенный из закэшированных байт. Отсутствующие фильмы пропускаются.
+     */
+    public byte[] getArray(List<Long> filmIds) {
+        Map<Long, FilmJson> films = getAll(filmIds);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        boolean first = true;
+        for (Long filmId : filmIds) {
+            FilmJson film = films.get(filmId);
+            if (film == null) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            out.writeBytes(film.json());
+            first = false;
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    public void invalidate(long filmId) {
+        synchronized (entries) {
+            generation++;
+            entries.remove(filmId);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private FilmJson serialize(Film film, long referenceVersion) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(film);
+            return new FilmJson(json, FilmService.eTag(film), film.getVersion(), referenceVersion);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать фильм с id " + film.getId(), e);
+        }
+    }
+
+    /**
+     * Сериализованный фильм. Массив байт разделяется между запросами и не должен изменяться.
+     * ETag — версия фильма, та же, что возвращают PUT и PATCH; по ней If-Match превращается
+     * в условие обновления.
+     */
+    public record FilmJson(byte[] json, String eTag, long version, long referenceVersion) {
+    }
+}
@@ -0,0 +1,21 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки кэша сериализованных фильмов, префикс {@code filmorate.film-json-cache}.
+ */
+@Data
+@ConfigurationProperties("filmorate.film-json-cache")
+public class FilmJsonCacheProperties {
+    /**
+     * Включает хранение JSON фильмов между запросами.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Сколько фильмов хранится; при превышении вытесняется давно не читавшийся.
+     */
+    private int maxEntries = 10_000;
+}
@@ -0,0 +1,279 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.SortedLongSet;
+import ru.yandex.practicum.filmorate.storage.TopK;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Инвертированный индекс для полнотекстового поиска фильмов по названию и описанию.
+ * <p>
+ * Для каждого слова хранится множество id фильмов на {@link SortedLongSet}; запрос пересекает
+ * множества своих слов, начиная с самого короткого, а последнее слово ищется как префикс, чтобы
+ * поиск работал по мере набора. Найденные фильмы фильтруются по жанру, MPA рейтингу и году и
+ * ранжируются по BM25, где слово в названии весит как {@value #NAME_WEIGHT} слова в описании.
+ * <p>
+ * Индекс строится из хранилища при старте и дальше обновляется при добавлении и изменении фильмов.
+ */
+@Slf4j
+@Component
+public class FilmSearchIndex {
+    static final int NAME_WEIGHT = 3;
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final FilmStorage filmStorage;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, SortedLongSet> postings = new TreeMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private long totalLength;
+
+    public FilmSearchIndex(@Qualifier("filmDbStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documents.clear();
+            totalLength = 0;
+            filmStorage.streamAll(this::put);
+            postings.values().forEach(SortedLongSet::trimToSize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Поисковый индекс фильмов построен за {} мс: фильмов {}, слов {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), documents.size(), postings.size());
+    }
+
+    /**
+     * Добавляет фильм в индекс или заменяет его прежнюю версию. Если жанры не переданы, сохраняются прежние,
+     * как и в хранилище.
+     */
+    public void index(Film film) {
+        lock.writeLock().lock();
+        try {
+            put(film);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void indexAll(Collection<Film> films) {
+        lock.writeLock().lock();
+        try {
+            films.forEach(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ищет фильмы, содержащие все слова запроса, и возвращает страницу id по убыванию релевантности.
+     * Фильтры со значением {@code null} не применяются.
+     */
+    public Hits search(String query, Integer genreId, Long mpaId, Integer year, int offset, int size) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new Hits(0, List.of());
+        }
+        String prefix = terms.remove(terms.size() - 1);
+
+        lock.readLock().lock();
+        try {
+            List<Term> matched = new ArrayList<>();
+            for (String term : terms) {
+                SortedLongSet films = postings.get(term);
+                if (films == null) {
+                    return new Hits(0, List.of());
+                }
+                matched.add(new Term(List.of(term), films.toLongArray()));
+            }
+            Term prefixTerm = expandPrefix(prefix);
+            if (prefixTerm.films().length == 0) {
+                return new Hits(0, List.of());
+            }
+            matched.add(prefixTerm);
+            matched.sort((left, right) -> Integer.compare(left.films().length, right.films().length));
+
+            long[] candidates = matched.get(0).films();
+            for (int i = 1; i < matched.size() && candidates.length > 0; i++) {
+                candidates = intersect(candidates, matched.get(i).films());
+            }
+
+            double averageLength = documents.isEmpty() ? 1 : (double) totalLength / documents.size();
+            TopK top = new TopK(offset + size);
+            int total = 0;
+            for (long filmId : candidates) {
+                Document document = documents.get(filmId);
+                if (!document.matches(genreId, mpaId, year)) {
+                    continue;
+                }
+                total++;
+                top.offer(filmId, score(document, matched, averageLength));
+            }
+            List<Long> ranked = top.idList();
+            return new Hits(total, ranked.subList(Math.min(offset, ranked.size()), ranked.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Слова текста в нижнем регистре; «ё» приводится к «е», чтобы запрос находил оба написания.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT).replace('ё', 'е'))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void put(Film film) {
+        Document previous = documents.remove(film.getId());
+        int[] genreIds;
+        if (previous != null) {
+            removePostings(film.getId(), previous);
+            totalLength -= previous.length();
+        }
+        if (film.getGenres() != null) {
+            genreIds = film.getGenres().stream().mapToInt(Genre::getId).sorted().toArray();
+        } else {
+            genreIds = previous != null ? previous.genreIds() : new int[0];
+        }
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = 0;
+        for (String token : tokenize(film.getName())) {
+            frequencies.merge(token, NAME_WEIGHT, Integer::sum);
+            length += NAME_WEIGHT;
+        }
+        for (String token : tokenize(film.getDescription())) {
+            frequencies.merge(token, 1, Integer::sum);
+            length++;
+        }
+        frequencies.keySet().forEach(token -> postings.computeIfAbsent(token, key -> new SortedLongSet()).add(film.getId()));
+
+        Long mpaId = film.getMpaRating() != null ? film.getMpaRating().getId() : null;
+        Integer year = film.getReleaseDate() != null ? film.getReleaseDate().getYear() : null;
+        documents.put(film.getId(), new Document(frequencies, length, genreIds, mpaId, year));
+        totalLength += length;
+    }
+
+    private void removePostings(long filmId, Document document) {
+        for (String token : document.frequencies().keySet()) {
+            SortedLongSet films = postings.get(token);
+            if (films != null && films.remove(filmId) && films.isEmpty()) {
+                postings.remove(token);
+            }
+        }
+    }
+
+    /**
+     * Объединяет множества всех слов с заданным префиксом.
+     */
+    private Term expandPrefix(String prefix) {
+        NavigableMap<String, SortedLongSet> expansions = postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (expansions.size() == 1) {
+            Map.Entry<String, SortedLongSet> only = expansions.firstEntry();
+            return new Term(List.of(only.getKey()), only.getValue().toLongArray());
+        }
+        int total = 0;
+        for (SortedLongSet films : expansions.values()) {
+            total += films.size();
+        }
+        long[] union = new long[total];
+        int offset = 0;
+        for (SortedLongSet films : expansions.values()) {
+            films.copyTo(union, offset);
+            offset += films.size();
+        }
+        return new Term(List.copyOf(expansions.keySet()), Arrays.stream(union).sorted().distinct().toArray());
+    }
+
+    private double score(Document document, List<Term> terms, double averageLength) {
+        double score = 0;
+        double lengthNorm = 1 - B + B * document.length() / averageLength;
+        for (Term term : terms) {
+            int frequency = 0;
+            for (String word : term.words()) {
+                frequency += document.frequencies().getOrDefault(word, 0);
+            }
+            int documentFrequency = term.films().length;
+            double idf = Math.log(1 + (documents.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            score += idf * frequency * (K1 + 1) / (frequency + K1 * lengthNorm);
+        }
+        return score;
+    }
+
+    private static long[] intersect(long[] left, long[] right) {
+        long[] result = new long[Math.min(left.length, right.length)];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                result[size++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Страница результатов поиска и общее число найденных фильмов.
+     */
+    public record Hits(int total, List<Long> filmIds) {
+    }
+
+    private record Term(List<String> words, long[] films) {
+    }
+
+    private record Document(Map<String, Integer> frequencies, int length, int[] genreIds, Long mpaId, Integer year) {
+        boolean matches(Integer genreId, Long mpaId, Integer year) {
+            if (mpaId != null && !mpaId.equals(this.mpaId)) {
+                return false;
+            }
+            if (year != null && !year.equals(this.year)) {
+                return false;
+            }
+            return genreId == null || Arrays.binarySearch(genreIds, genreId) >= 0;
+        }
+    }
+}
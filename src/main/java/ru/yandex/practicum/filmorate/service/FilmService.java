@@ -2,40 +2,81 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportResult;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.FilmStorage;
-import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
-import ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class FilmService {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SEARCH_SIZE = 100;
+    private static final int MAX_SEARCH_WINDOW = 1000;
+    private static final int MAX_BATCH_SIZE = 100;
+
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
-    private final GenreDbStorage genreStorage;
-    private final MpaRatingDbStorage mpaStorage;
+    private final ReferenceDataCache referenceData;
+    private final LikeWriteBehindBuffer likeBuffer;
+    private final PopularFilmsCache popularCache;
+    private final FilmJsonCache filmJsonCache;
+    private final RecommendationService recommendations;
+    private final FilmSearchIndex searchIndex;
+    private final TrendingService trending;
+    private final BatchImporter<Film> importer;
 
     public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
                        @Qualifier("userDbStorage") UserStorage userStorage,
-                       @Qualifier("GenreDbStorage") GenreDbStorage genreStorage,
-                       @Qualifier("MpaRatingDbStorage") MpaRatingDbStorage mpaStorage) {
+                       ReferenceDataCache referenceData,
+                       LikeWriteBehindBuffer likeBuffer,
+                       PopularFilmsCache popularCache,
+                       FilmJsonCache filmJsonCache,
+                       RecommendationService recommendations,
+                       FilmSearchIndex searchIndex,
+                       TrendingService trending,
+                       @Value("${filmorate.import.batch-size:500}") int importBatchSize) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
-        this.genreStorage = genreStorage;
-        this.mpaStorage = mpaStorage;
+        this.referenceData = referenceData;
+        this.likeBuffer = likeBuffer;
+        this.popularCache = popularCache;
+        this.filmJsonCache = filmJsonCache;
+        this.recommendations = recommendations;
+        this.searchIndex = searchIndex;
+        this.trending = trending;
+        this.importer = new BatchImporter<>(importBatchSize, film -> {
+            validateFilm(film);
+            setFilmGenresAndMpa(film);
+        }, films -> searchIndex.indexAll(filmStorage.addAll(films)), film -> {
+            Film added = filmStorage.add(film);
+            searchIndex.index(added);
+            return added;
+        });
     }
 
 
@@ -43,61 +84,289 @@ public class FilmService {
         return filmStorage.getAll();
     }
 
+    public List<Film> getPage(long afterId, int size) {
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new ConditionsNotMetException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return filmStorage.getPage(afterId, size);
+    }
+
+    public void streamAll(Consumer<Film> consumer) {
+        filmStorage.streamAll(consumer);
+    }
+
     public Film add(Film film) {
         validateFilm(film);
         setFilmGenresAndMpa(film);
-        return filmStorage.add(film);
+        Film added = filmStorage.add(film);
+        searchIndex.index(added);
+        popularCache.onFilmsAdded();
+        return added;
     }
 
-    private void validateFilm(Film film) {
-        if (film.getName() == null || film.getName().isBlank()) {
-            throw new ValidationException("Название фильма не может быть пустым");
+    public ImportResult importFilms(Iterator<Film> films) {
+        ImportResult result = importer.run(films);
+        if (result.getImported() > 0) {
+            popularCache.onFilmsAdded();
         }
+        log.info("Загружено фильмов: {}, отклонено записей: {}", result.getImported(), result.getErrors().size());
+        return result;
+    }
+
+    private void validateFilm(Film film) {
+        validateName(film.getName());
 
         if (film.getReleaseDate() == null) {
             throw new ValidationException("Дата релиза не может быть пустой");
         }
-        if (film.getReleaseDate().isBefore(LocalDate.of(1895, 12, 28))) {
+        validateReleaseDate(film.getReleaseDate());
+
+        validateDuration(film.getDuration());
+
+        if (film.getDescription() != null) {
+            validateDescription(film.getDescription());
+        }
+    }
+
+    private void validatePatch(FilmPatch patch) {
+        if (patch.getName() != null) {
+            validateName(patch.getName());
+        }
+        if (patch.getReleaseDate() != null) {
+            validateReleaseDate(patch.getReleaseDate());
+        }
+        if (patch.getDuration() != null) {
+            validateDuration(patch.getDuration());
+        }
+        if (patch.getDescription() != null) {
+            validateDescription(patch.getDescription());
+        }
+    }
+
+    private static void validateName(String name) {
+        if (name == null || name.isBlank()) {
+            throw new ValidationException("Название фильма не может быть пустым");
+        }
+    }
+
+    private static void validateReleaseDate(LocalDate releaseDate) {
+        if (releaseDate.isBefore(LocalDate.of(1895, 12, 28))) {
             throw new ValidationException("Дата релиза не может быть раньше 28 декабря 1895 года");
         }
+    }
 
-        if (film.getDuration() <= 0) {
+    private static void validateDuration(int duration) {
+        if (duration <= 0) {
             throw new ValidationException("Продолжительность фильма должна быть положительной");
         }
+    }
 
-        if (film.getDescription() != null && film.getDescription().length() > 200) {
+    private static void validateDescription(String description) {
+        if (description.length() > 200) {
             throw new ValidationException("Описание не может быть длиннее 200 символов");
         }
+    }
 
+    public Film update(Film film) {
+        if (film.getId() == null) {
+            throw new NotFoundException("Фильм с id null не найден");
+        }
+        setFilmGenresAndMpa(film);
+        Film updated = filmStorage.update(film);
+        searchIndex.index(updated);
+        popularCache.onFilmChanged(updated.getId());
+        filmJsonCache.invalidate(updated.getId());
+        return updated;
+    }
 
+    /**
+     * Обновление с условием If-Match: фильм перезаписывается, только если клиент видел его текущий ETag.
+     * Без заголовка (или с «*») условием служит версия из тела, если клиент её передал.
+     */
+    public Film update(Film film, List<String> ifMatch) {
+        if (film.getId() != null && VersionETag.isConditional(ifMatch)) {
+            film.setVersion(matchedVersion(film.getId(), ifMatch));
+        }
+        return update(film);
+    }
 
+    /**
+     * Частичное обновление: в базу пишутся только переданные поля, условие If-Match — как в update.
+     */
+    public Film patch(long id, FilmPatch patch, List<String> ifMatch) {
+        validatePatch(patch);
+        if (patch.getMpaRating() != null) {
+            patch.setMpaRating(resolveMpaRating(patch.getMpaRating()));
+        }
+        if (patch.getGenres() != null) {
+            patch.setGenres(resolveGenres(patch.getGenres()));
+        }
+        if (VersionETag.isConditional(ifMatch)) {
+            patch.setVersion(matchedVersion(id, ifMatch));
+        }
+        long version = filmStorage.patch(id, patch);
+        popularCache.onFilmChanged(id);
+        filmJsonCache.invalidate(id);
+        Film patched = findFilmByIdOrThrow(id);
+        searchIndex.index(patched);
+        log.info("Фильм с id: {} частично обновлён до версии {}", id, version);
+        return patched;
     }
 
-    public Film update(Film film) {
-        setFilmGenresAndMpa(film);
-        return filmStorage.update(film);
+    /**
+     * ETag фильма — его версия, как у пользователей.
+     */
+    public static String eTag(Film film) {
+        return VersionETag.of(film.getVersion());
+    }
+
+    /**
+     * Один ETag проверяется самим условным UPDATE. Из нескольких выбирается совпавший с версией
+     * закэшированного JSON фильма, так что устаревшие отклоняются без обращения к базе.
+     */
+    private long matchedVersion(long id, List<String> ifMatch) {
+        List<Long> versions = VersionETag.versions(ifMatch);
+        if (versions.size() == 1) {
+            return versions.get(0);
+        }
+        long current = filmJsonCache.get(id).version();
+        if (!versions.contains(current)) {
+            throw new PreconditionFailedException("Фильм с id " + id + " изменён: ETag не совпадает с текущим");
+        }
+        return current;
     }
 
     public Film getById(long id) {
         return findFilmByIdOrThrow(id);
     }
 
+    /**
+     * Фильм, сериализованный в JSON, с ETag. Повторные запросы обслуживаются из кэша без базы.
+     */
+    public FilmJsonCache.FilmJson getJsonById(long id) {
+        return filmJsonCache.get(id);
+    }
+
+    /**
+     * Фильмы по списку id одним ответом: {"films": [...], "missing": [...]}.
+     * Фильмы идут в порядке запроса, в missing перечислены id, для которых фильма нет.
+     */
+    public byte[] getJsonByIds(List<Long> ids) {
+        log.info("Получение фильмов по id: {}", ids);
+        if (ids.isEmpty() || ids.size() > MAX_BATCH_SIZE) {
+            throw new ConditionsNotMetException("Количество id должно быть от 1 до " + MAX_BATCH_SIZE);
+        }
+        Map<Long, FilmJsonCache.FilmJson> films = filmJsonCache.getAll(ids);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("{\"films\":[".getBytes(StandardCharsets.UTF_8));
+        boolean first = true;
+        for (Long id : ids) {
+            FilmJsonCache.FilmJson film = films.get(id);
+            if (film != null) {
+                if (!first) {
+                    out.write(',');
+                }
+                out.writeBytes(film.json());
+                first = false;
+            }
+        }
+        String missing = ids.stream()
+                .filter(id -> !films.containsKey(id))
+                .distinct()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+        out.writeBytes(("],\"missing\":[" + missing + "]}").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
     public void addLike(long filmId, long userId) {
         log.info("Пользователь с id: {} ставит лайк фильму с id: {}", userId, filmId);
-        filmStorage.likeFilm(filmId, userId);
+        if (likeBuffer.isEnabled()) {
+            likeBuffer.like(filmId, userId);
+        } else {
+            filmStorage.likeFilm(filmId, userId);
+        }
+        popularCache.onLikeChanged(filmId, true);
+        recommendations.onLikeChanged(filmId, userId, true);
+        trending.onLikeChanged(filmId, userId, true);
     }
 
     public void removeLike(long filmId, long userId) {
         log.info("Пользователь с id: {} удаляет лайк с фильма с id: {}", userId, filmId);
-        filmStorage.unlikeFilm(filmId, userId);
+        if (likeBuffer.isEnabled()) {
+            likeBuffer.unlike(filmId, userId);
+        } else {
+            filmStorage.unlikeFilm(filmId, userId);
+        }
+        popularCache.onLikeChanged(filmId, false);
+        recommendations.onLikeChanged(filmId, userId, false);
+        trending.onLikeChanged(filmId, userId, false);
     }
 
     public List<Film> getMostPopular(int size) {
-        log.info("Получение {} самых популярных фильмов", size);
+        return getMostPopular(size, null, null, null);
+    }
+
+    /**
+     * Самые популярные фильмы, при необходимости только указанного жанра, MPA рейтинга и года выхода.
+     */
+    public List<Film> getMostPopular(int size, Integer genreId, Long mpaId, Integer year) {
+        log.info("Получение {} самых популярных фильмов, жанр: {}, MPA: {}, год: {}", size, genreId, mpaId, year);
         if (size <= 0) {
             throw new ConditionsNotMetException("Количество популярных фильмов должно быть положительным");
         }
-        return filmStorage.getPopular(size);
+        return popularCache.getPopular(size, genreId, mpaId, year);
+    }
+
+    /**
+     * Полнотекстовый поиск по названию и описанию с фильтрами по жанру, MPA рейтингу и году выхода.
+     */
+    public FilmSearchIndex.Hits search(String query, Integer genreId, Long mpaId, Integer year, int offset, int size) {
+        log.info("Поиск фильмов по запросу \"{}\", жанр: {}, MPA: {}, год: {}", query, genreId, mpaId, year);
+        if (query == null || query.isBlank()) {
+            throw new ConditionsNotMetException("Поисковый запрос не может быть пустым");
+        }
+        if (size <= 0 || size > MAX_SEARCH_SIZE) {
+            throw new ConditionsNotMetException("Размер страницы должен быть от 1 до " + MAX_SEARCH_SIZE);
+        }
+        if (offset < 0 || offset + size > MAX_SEARCH_WINDOW) {
+            throw new ConditionsNotMetException("Доступны только первые " + MAX_SEARCH_WINDOW + " результатов поиска");
+        }
+        return searchIndex.search(query, genreId, mpaId, year, offset, size);
+    }
+
+    /**
+     * JSON-массив фильмов в заданном порядке; отсутствующие фильмы пропускаются.
+     */
+    public byte[] getJsonArray(List<Long> filmIds) {
+        return filmJsonCache.getArray(filmIds);
+    }
+
+    /**
+     * JSON-массив фильмов, которые лайкали вместе с заданным.
+     */
+    public byte[] getSimilarJson(long filmId, int count) {
+        log.info("Получение {} фильмов, похожих на фильм с id: {}", count, filmId);
+        // Проверка существования через кэш JSON: для популярных фильмов обходится без базы
+        filmJsonCache.get(filmId);
+        return filmJsonCache.getArray(recommendations.getSimilarFilms(filmId, count));
+    }
+
+    /**
+     * JSON-массив фильмов, рекомендованных пользователю по его лайкам.
+     */
+    public byte[] getRecommendationsJson(long userId, int count) {
+        log.info("Получение {} рекомендаций для пользователя с id: {}", count, userId);
+        findUserByIdOrThrow(userId);
+        return filmJsonCache.getArray(recommendations.getRecommendations(userId, count));
+    }
+
+    /**
+     * JSON-массив фильмов по убыванию затухающих во времени очков лайков.
+     */
+    public byte[] getTrendingJson(int size) {
+        log.info("Получение {} трендовых фильмов", size);
+        return filmJsonCache.getArray(trending.getTrending(size));
     }
 
     private Film findFilmByIdOrThrow(long id) {
@@ -111,27 +380,34 @@ public class FilmService {
     }
 
     private void setFilmGenresAndMpa(Film film) {
+        // Справочники читаются из кэша: проверка фильма не делает запросов к базе
         if (film.getMpaRating() != null) {
-            Long mpaId = film.getMpaRating().getId();
-            if (mpaId == null) {
-                throw new ValidationException("MPA рейтинг не может иметь пустой id");
-            }
-            Optional<MpaRating> mpaOpt = mpaStorage.getMpaRatingById(mpaId);
-            if (mpaOpt.isEmpty()) {
-                throw new ValidationException("MPA рейтинг с id " + mpaId + " не найден");
-            }
+            film.setMpaRating(resolveMpaRating(film.getMpaRating()));
         }
 
         if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            for (Genre genre : film.getGenres()) {
-                if (genre.getId() == null) {
-                    throw new ValidationException("Жанр не может иметь пустой id");
-                }
-                Optional<Genre> genreOpt = genreStorage.getGenreById(genre.getId());
-                if (genreOpt.isEmpty()) {
-                    throw new ValidationException("Жанр с id " + genre.getId() + " не найден");
-                }
+            film.setGenres(resolveGenres(film.getGenres()));
+        }
+    }
+
+    private MpaRating resolveMpaRating(MpaRating requested) {
+        Long mpaId = requested.getId();
+        if (mpaId == null) {
+            throw new ValidationException("MPA рейтинг не может иметь пустой id");
+        }
+        return referenceData.getMpaRatingById(mpaId)
+                .orElseThrow(() -> new ValidationException("MPA рейтинг с id " + mpaId + " не найден"));
+    }
+
+    private Set<Genre> resolveGenres(Set<Genre> requested) {
+        Set<Genre> genres = new TreeSet<>(Comparator.comparing(Genre::getId));
+        for (Genre genre : requested) {
+            if (genre.getId() == null) {
+                throw new ValidationException("Жанр не может иметь пустой id");
             }
+            genres.add(referenceData.getGenreById(genre.getId())
+                    .orElseThrow(() -> new ValidationException("Жанр с id " + genre.getId() + " не найден")));
         }
+        return new LinkedHashSet<>(genres);
     }
 }
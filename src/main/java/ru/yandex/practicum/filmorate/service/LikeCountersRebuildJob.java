@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+/**
+ * Периодически сверяет материализованные счётчики лайков с таблицей film_likes
+ * и исправляет расхождения.
+ */
+@Component
+@Slf4j
+public class LikeCountersRebuildJob {
+    private final FilmStorage filmStorage;
+
+    public LikeCountersRebuildJob(@Qualifier("filmDbStorage") FilmStorage filmStorage) {
+        this.filmStorage = filmStorage;
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.likes.rebuild-interval:PT1H}",
+            fixedDelayString = "${filmorate.likes.rebuild-interval:PT1H}")
+    public void rebuild() {
+        int corrected = filmStorage.rebuildLikeCounters();
+        if (corrected > 0) {
+            log.warn("Счётчики лайков пересчитаны, исправлено фильмов: {}", corrected);
+        } else {
+            log.debug("Счётчики лайков согласованы с film_likes");
+        }
+    }
+}
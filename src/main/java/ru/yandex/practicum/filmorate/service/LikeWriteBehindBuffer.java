@@ -0,0 +1,353 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.model.LikeChange;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Буфер отложенной записи лайков.
+ * <p>
+ * Изменения копятся в ограниченной очереди, где лайк и последующее снятие того же лайка
+ * взаимно уничтожаются, а фоновый поток сбрасывает остаток пакетами через
+ * {@link FilmStorage#saveLikeChanges}. Пока изменение не записано, оно учитывается
+ * в {@link #pendingDeltas()}, чтобы чтение популярных фильмов его видело.
+ * <p>
+ * Буфер экономит запись, но не чтение: изменение пары, которой ещё нет в буфере, проверяется
+ * синхронным {@link FilmStorage#isLiked} в потоке запроса. Перенести проверку на момент сброса нельзя:
+ * лайк несуществующего фильма или пользователя нарушил бы внешний ключ и вернул бы в очередь весь пакет.
+ */
+@Component
+@EnableConfigurationProperties(LikeWriteBehindProperties.class)
+@Slf4j
+public class LikeWriteBehindBuffer {
+    private final FilmStorage filmStorage;
+    private final LikeWriteBehindProperties properties;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private LinkedHashMap<LikeKey, LikeChange> pending = new LinkedHashMap<>();
+    private Map<LikeKey, LikeChange> inFlight = Map.of();
+    private final Map<Long, Integer> deltas = new HashMap<>();
+    private long flushGeneration;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public LikeWriteBehindBuffer(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                                 LikeWriteBehindProperties properties) {
+        this.filmStorage = filmStorage;
+        this.properties = properties;
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        running = true;
+        writer = Thread.ofPlatform().name("like-write-behind").daemon().start(this::runWriter);
+        log.info("Отложенная запись лайков включена: пакет {}, интервал {}, ёмкость {}",
+                properties.getFlushSize(), properties.getFlushInterval(), properties.getCapacity());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        signalFlush();
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+        // Всё, что не успел записать фоновый поток, сбрасывается до закрытия хранилища
+        flush();
+    }
+
+    public void like(long filmId, long userId) {
+        submit(new LikeChange(filmId, userId, true));
+    }
+
+    public void unlike(long filmId, long userId) {
+        submit(new LikeChange(filmId, userId, false));
+    }
+
+    /**
+     * Несброшенные изменения числа лайков по фильмам.
+     */
+    public Map<Long, Integer> pendingDeltas() {
+        lock.lock();
+        try {
+            return Map.copyOf(deltas);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Не больше {@code limit} фильмов с наибольшим несброшенным приростом лайков не меньше {@code minGain},
+     * кроме отброшенных {@code skip}. В отличие от {@link #pendingDeltas()} не копирует весь буфер.
+     */
+    public Map<Long, Integer> pendingGains(int limit, int minGain, LongPredicate skip) {
+        PriorityQueue<Map.Entry<Long, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        lock.lock();
+        try {
+            for (Map.Entry<Long, Integer> entry : deltas.entrySet()) {
+                int gain = entry.getValue();
+                if (gain <= 0 || gain < minGain || skip.test(entry.getKey())) {
+                    continue;
+                }
+                if (top.size() < limit) {
+                    top.add(Map.entry(entry.getKey(), gain));
+                } else if (!top.isEmpty() && top.peek().getValue() < gain) {
+                    top.poll();
+                    top.add(Map.entry(entry.getKey(), gain));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        Map<Long, Integer> gains = new HashMap<>();
+        top.forEach(entry -> gains.put(entry.getKey(), entry.getValue()));
+        return gains;
+    }
+
+    /**
+     * Синхронно записывает все накопленные изменения.
+     */
+    public void flush() {
+        while (flushBatch()) {
+            // Пишем пакетами, пока очередь не опустеет
+        }
+    }
+
+    private void submit(LikeChange change) {
+        LikeKey key = new LikeKey(change.getFilmId(), change.getUserId());
+        long deadline = System.nanoTime() + properties.getOfferTimeout().toNanos();
+        while (true) {
+            long generation;
+            lock.lock();
+            try {
+                Boolean bufferedState = bufferedState(key);
+                if (bufferedState != null) {
+                    applyToBuffered(key, change, bufferedState);
+                    return;
+                }
+                generation = flushGeneration;
+            } finally {
+                lock.unlock();
+            }
+
+            // Проверка существования фильма и пользователя и текущего состояния лайка — вне блокировки
+            boolean storedState = filmStorage.isLiked(change.getFilmId(), change.getUserId());
+
+            lock.lock();
+            try {
+                Boolean bufferedState = bufferedState(key);
+                if (bufferedState != null) {
+                    applyToBuffered(key, change, bufferedState);
+                    return;
+                }
+                if (generation != flushGeneration) {
+                    // Пока читали хранилище, завершился сброс — прочитанное состояние могло устареть
+                    continue;
+                }
+                checkTransition(change, storedState);
+                if (pending.size() < properties.getCapacity()) {
+                    enqueue(key, change);
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                signalFlush();
+                notFull.awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        log.warn("Буфер лайков переполнен, лайк фильма {} пользователем {} записывается синхронно",
+                change.getFilmId(), change.getUserId());
+        if (change.isLiked()) {
+            filmStorage.likeFilm(change.getFilmId(), change.getUserId());
+        } else {
+            filmStorage.unlikeFilm(change.getFilmId(), change.getUserId());
+        }
+    }
+
+    private Boolean bufferedState(LikeKey key) {
+        LikeChange buffered = pending.get(key);
+        if (buffered == null) {
+            buffered = inFlight.get(key);
+        }
+        return buffered == null ? null : buffered.isLiked();
+    }
+
+    private void applyToBuffered(LikeKey key, LikeChange change, boolean bufferedState) {
+        checkTransition(change, bufferedState);
+        LikeChange cancelled = pending.remove(key);
+        if (cancelled != null) {
+            // Лайк и его снятие (или наоборот) до записи взаимно уничтожаются
+            addDelta(cancelled.getFilmId(), cancelled.isLiked() ? -1 : 1);
+        } else {
+            // Противоположное изменение уже записывается — ставим новое в очередь за ним
+            enqueue(key, change);
+        }
+    }
+
+    private void enqueue(LikeKey key, LikeChange change) {
+        pending.put(key, change);
+        addDelta(change.getFilmId(), change.isLiked() ? 1 : -1);
+        if (pending.size() >= properties.getFlushSize()) {
+            flushNeeded.signal();
+        }
+    }
+
+    private static void checkTransition(LikeChange change, boolean currentlyLiked) {
+        if (change.isLiked() && currentlyLiked) {
+            throw new ConditionsNotMetException("Пользователь с id " + change.getUserId()
+                    + " уже поставил лайк фильму с id " + change.getFilmId());
+        }
+        if (!change.isLiked() && !currentlyLiked) {
+            throw new ConditionsNotMetException("Пользователь с id " + change.getUserId()
+                    + " не поставил лайк фильму с id " + change.getFilmId());
+        }
+    }
+
+    private void addDelta(long filmId, int delta) {
+        if (deltas.merge(filmId, delta, Integer::sum) == 0) {
+            deltas.remove(filmId);
+        }
+    }
+
+    private void signalFlush() {
+        lock.lock();
+        try {
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWriter() {
+        long intervalNanos = properties.getFlushInterval().toNanos();
+        while (running) {
+            lock.lock();
+            try {
+                if (pending.size() < properties.getFlushSize()) {
+                    flushNeeded.awaitNanos(intervalNanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flushBatch();
+            } catch (RuntimeException e) {
+                log.error("Не удалось записать пакет лайков, повтор через {}", properties.getFlushInterval(), e);
+            }
+        }
+    }
+
+    /**
+     * Записывает очередной пакет; возвращает {@code false}, если писать было нечего.
+     */
+    private boolean flushBatch() {
+        flushLock.lock();
+        try {
+            Map<LikeKey, LikeChange> batch = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                Iterator<Map.Entry<LikeKey, LikeChange>> iterator = pending.entrySet().iterator();
+                while (iterator.hasNext() && batch.size() < properties.getFlushSize()) {
+                    Map.Entry<LikeKey, LikeChange> entry = iterator.next();
+                    batch.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+                if (batch.isEmpty()) {
+                    return false;
+                }
+                inFlight = batch;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            boolean written = false;
+            try {
+                filmStorage.saveLikeChanges(List.copyOf(batch.values()));
+                written = true;
+            } finally {
+                completeFlush(batch, written);
+            }
+            return true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void completeFlush(Map<LikeKey, LikeChange> batch, boolean written) {
+        lock.lock();
+        try {
+            inFlight = Map.of();
+            flushGeneration++;
+            if (written) {
+                for (LikeChange change : batch.values()) {
+                    addDelta(change.getFilmId(), change.isLiked() ? -1 : 1);
+                }
+                return;
+            }
+            // Пакет не записан: возвращаем его в очередь перед более новыми изменениями
+            LinkedHashMap<LikeKey, LikeChange> restored = new LinkedHashMap<>();
+            List<LikeKey> cancelled = new ArrayList<>();
+            for (Map.Entry<LikeKey, LikeChange> entry : batch.entrySet()) {
+                if (pending.containsKey(entry.getKey())) {
+                    cancelled.add(entry.getKey());
+                } else {
+                    restored.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (LikeKey key : cancelled) {
+                // Новое изменение противоположно незаписанному — оба вклада в дельту гасят друг друга
+                pending.remove(key);
+            }
+            restored.putAll(pending);
+            pending = restored;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record LikeKey(long filmId, long userId) {
+    }
+}
@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Настройки отложенной записи лайков, префикс {@code filmorate.likes.write-behind}.
+ */
+@Data
+@ConfigurationProperties("filmorate.likes.write-behind")
+public class LikeWriteBehindProperties {
+    /**
+     * Включает накопление лайков в памяти с фоновой пакетной записью в film_likes.
+     * <p>
+     * Откладывается только запись. Лайк пары фильм–пользователь, которой нет в буфере, по-прежнему
+     * проверяется одним синхронным запросом {@code FilmStorage#isLiked} по первичным ключам, чтобы
+     * несуществующий фильм или повторный лайк давали ошибку в ответе, а не ломали пакет при сбросе.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Максимальное число несброшенных изменений; при заполнении запросы ждут освобождения места.
+     */
+    private int capacity = 10_000;
+
+    /**
+     * Сколько изменений записывается одним пакетом.
+     */
+    private int flushSize = 500;
+
+    /**
+     * Максимальная задержка между появлением изменения и его записью.
+     */
+    private Duration flushInterval = Duration.ofSeconds(1);
+
+    /**
+     * Сколько запрос ждёт места в заполненном буфере, прежде чем записать лайк синхронно.
+     */
+    private Duration offerTimeout = Duration.ofMillis(200);
+}
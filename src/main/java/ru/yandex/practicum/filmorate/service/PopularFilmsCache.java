@@ -0,0 +1,393 @@
+package ru.yandex.practicum.filmorate.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiPredicate;
+
+/**
+ * Кэш списков популярных фильмов.
+ * <p>
+ * Запрошенный размер округляется вверх до корзины из настроек, так что все размеры обслуживаются
+ * несколькими неизменяемыми списками. Промах по корзине сначала ищет свежий список большей корзины
+ * с тем же фильтром по жанру, MPA рейтингу и году и отдаёт его начало, и только затем читает хранилище.
+ * <p>
+ * Списки хранят счётчики лайков на момент загрузки. Лайк фильма из списка переставляет фильм
+ * в копии списка по новому счётчику без обращения к хранилищу. Список сбрасывается, только если
+ * снятый лайк опускает фильм до счётчика последнего фильма полного списка: на его место может
+ * претендовать фильм за границей корзины. Фильм вне полного списка может войти в него после новых
+ * лайков — это видно не позже чем через TTL. Добавление фильма сбрасывает неполные списки, куда
+ * он попадает сразу. Изменение фильма сбрасывает списки с ним и все отфильтрованные списки: новый
+ * жанр или год вводит фильм в списки, где его ещё нет.
+ * <p>
+ * Одновременные промахи по одному ключу читают хранилище один раз: остальные запросы ждут
+ * загрузку первого. Сброс во время загрузки запоминается и проверяется на загруженном списке.
+ * <p>
+ * При отложенной записи лайков загруженный список учитывает несброшенные изменения буфера, а дальше
+ * их, как и все лайки, переносит {@link #onLikeChanged}. Фильмы вне списка, которые несброшенные лайки
+ * могут поднять в него, догружаются по id при чтении: не больше
+ * {@link PopularFilmsCacheProperties#getPendingCandidates()} с наибольшим приростом.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(PopularFilmsCacheProperties.class)
+public class PopularFilmsCache {
+    private final FilmStorage filmStorage;
+    private final LikeWriteBehindBuffer likeBuffer;
+    private final PopularFilmsCacheProperties properties;
+    private final int[] buckets;
+    private final long ttlNanos;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Key, Load> loads = new ConcurrentHashMap<>();
+    // Сброс и завершение загрузки не пересекаются: список, прочитанный до сброса, не попадёт в кэш после него
+    private final Object loadLock = new Object();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter bypasses;
+    private final Counter evictions;
+    private final Counter invalidations;
+
+    public PopularFilmsCache(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                             LikeWriteBehindBuffer likeBuffer,
+                             PopularFilmsCacheProperties properties,
+                             MeterRegistry meterRegistry) {
+        this.filmStorage = filmStorage;
+        this.likeBuffer = likeBuffer;
+        this.properties = properties;
+        this.buckets = properties.getBuckets().stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        this.ttlNanos = properties.getTtl().toNanos();
+
+        hits = requests(meterRegistry, "hit");
+        misses = requests(meterRegistry, "miss");
+        coalesced = requests(meterRegistry, "coalesced");
+        bypasses = requests(meterRegistry, "bypass");
+        evictions = Counter.builder("filmorate.cache.popular.evictions")
+                .description("Списков, вытесненных из-за ограничения размера")
+                .register(meterRegistry);
+        invalidations = Counter.builder("filmorate.cache.popular.invalidations")
+                .description("Списков, сброшенных из-за изменения лайков или фильмов")
+                .register(meterRegistry);
+        Gauge.builder("filmorate.cache.popular.films", this, PopularFilmsCache::cachedFilms)
+                .description("Фильмов во всех закэшированных списках")
+                .register(meterRegistry);
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("filmorate.cache.popular.requests")
+                .description("Запросов популярных фильмов по результату обращения к кэшу")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    public List<Film> getPopular(int size) {
+        return getPopular(size, null, null, null);
+    }
+
+    public List<Film> getPopular(int size, Integer genreId, Long mpaId, Integer year) {
+        int bucketIndex = bucketIndexFor(size);
+        if (!properties.isEnabled() || bucketIndex < 0) {
+            bypasses.increment();
+            return withPendingGains(load(size, genreId, mpaId, year, System.nanoTime()), size, genreId, mpaId, year);
+        }
+
+        long now = System.nanoTime();
+        for (int i = bucketIndex; i < buckets.length; i++) {
+            Entry entry = entries.get(new Key(genreId, mpaId, year, buckets[i]));
+            if (entry != null && now - entry.loadedAt < ttlNanos) {
+                entry.lastAccess = now;
+                hits.increment();
+                return withPendingGains(entry, size, genreId, mpaId, year);
+            }
+        }
+
+        Key key = new Key(genreId, mpaId, year, buckets[bucketIndex]);
+        Load load = new Load();
+        Load running = loads.putIfAbsent(key, load);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return withPendingGains(running.result.join(), size, genreId, mpaId, year);
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        misses.increment();
+        try {
+            Entry entry = load(key.bucket(), genreId, mpaId, year, now);
+            complete(key, load, entry);
+            load.result.complete(entry);
+            return withPendingGains(entry, size, genreId, mpaId, year);
+        } catch (RuntimeException e) {
+            loads.remove(key, load);
+            load.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Entry load(int limit, Integer genreId, Long mpaId, Integer year, long now) {
+        Map<Long, Integer> deltas = likeBuffer.isEnabled() ? likeBuffer.pendingDeltas() : Map.of();
+        if (deltas.isEmpty()) {
+            List<Film> films = filmStorage.getPopular(limit, genreId, mpaId, year);
+            return new Entry(films, films.stream().mapToInt(Film::getLikesCount).toArray(), limit, now);
+        }
+        // Фильм с несброшенным снятием лайка может уступить место следующему за границей списка,
+        // поэтому граница расширяется на число таких фильмов, но не больше чем вдвое
+        int demoted = (int) Math.min(limit, deltas.values().stream().filter(delta -> delta < 0).count());
+        List<Ranked> ranked = filmStorage.getPopular(limit + demoted, genreId, mpaId, year).stream()
+                .map(film -> new Ranked(film, film.getLikesCount() + deltas.getOrDefault(film.getId(), 0)))
+                .sorted()
+                .limit(limit)
+                .toList();
+        return new Entry(ranked.stream().map(Ranked::film).toList(),
+                ranked.stream().mapToInt(Ranked::likes).toArray(), limit, now);
+    }
+
+    /**
+     * Начало списка с фильмами извне, которых несброшенные лайки поднимают в него.
+     */
+    private List<Film> withPendingGains(Entry entry, int size, Integer genreId, Long mpaId, Integer year) {
+        List<Film> head = head(entry.films, size);
+        // В неполный список входят все подходящие фильмы, и поднимать в него некого
+        if (!likeBuffer.isEnabled() || head.size() < size) {
+            return head;
+        }
+        // Фильм вне списка при загрузке был не выше последнего, поэтому меньший прирост его не поднимет
+        int minGain = entry.likes[size - 1] - entry.likes[entry.likes.length - 1];
+        Map<Long, Integer> gains = likeBuffer.pendingGains(properties.getPendingCandidates(), minGain,
+                entry::contains);
+        if (gains.isEmpty()) {
+            return head;
+        }
+        List<Ranked> candidates = new ArrayList<>(size + gains.size());
+        for (int i = 0; i < size; i++) {
+            candidates.add(new Ranked(head.get(i), entry.likes[i]));
+        }
+        for (Film film : filmStorage.getByIds(gains.keySet())) {
+            if (matchesFilter(film, genreId, mpaId, year)) {
+                candidates.add(new Ranked(film, film.getLikesCount() + gains.get(film.getId())));
+            }
+        }
+        return candidates.stream()
+                .sorted()
+                .limit(size)
+                .map(Ranked::film)
+                .toList();
+    }
+
+    private static boolean matchesFilter(Film film, Integer genreId, Long mpaId, Integer year) {
+        if (genreId != null && (film.getGenres() == null
+                || film.getGenres().stream().noneMatch(genre -> genreId.equals(genre.getId())))) {
+            return false;
+        }
+        if (mpaId != null && (film.getMpaRating() == null || !mpaId.equals(film.getMpaRating().getId()))) {
+            return false;
+        }
+        return year == null || (film.getReleaseDate() != null && film.getReleaseDate().getYear() == year);
+    }
+
+    private void complete(Key key, Load load, Entry entry) {
+        synchronized (loadLock) {
+            loads.remove(key, load);
+            if (load.invalidations.stream().anyMatch(condition -> condition.test(key, entry))) {
+                return;
+            }
+            entries.put(key, entry);
+        }
+        evictOverflow();
+    }
+
+    /**
+     * Лайк поставлен или снят: фильм переставляется в списках, где он есть, по изменённому счётчику.
+     */
+    public void onLikeChanged(long filmId, boolean liked) {
+        int delta = liked ? 1 : -1;
+        for (Key key : entries.keySet()) {
+            entries.computeIfPresent(key, (ignored, entry) -> {
+                if (!entry.contains(filmId)) {
+                    return entry;
+                }
+                Entry reordered = entry.withLikes(filmId, delta);
+                if (reordered == null) {
+                    invalidations.increment();
+                }
+                return reordered;
+            });
+        }
+    }
+
+    /**
+     * Поля фильма изменены: списки с ним отдают устаревшие данные.
+     */
+    public void onFilmChanged(long filmId) {
+        invalidateIf((key, entry) -> key.isFiltered() || entry.contains(filmId));
+    }
+
+    /**
+     * Добавлены фильмы: они сразу входят в списки, где фильмов меньше размера корзины.
+     */
+    public void onFilmsAdded() {
+        invalidateIf((key, entry) -> entry.isPartial());
+    }
+
+    public void invalidateAll() {
+        invalidateIf((key, entry) -> true);
+    }
+
+    private void invalidateIf(BiPredicate<Key, Entry> condition) {
+        synchronized (loadLock) {
+            loads.values().forEach(load -> load.invalidations.add(condition));
+            entries.entrySet().removeIf(mapEntry -> {
+                if (condition.test(mapEntry.getKey(), mapEntry.getValue())) {
+                    invalidations.increment();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private int bucketIndexFor(int size) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] >= size) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void evictOverflow() {
+        while (cachedFilms() > properties.getMaxFilms()) {
+            Map.Entry<Key, Entry> leastRecent = entries.entrySet().stream()
+                    .min(Comparator.comparingLong(mapEntry -> mapEntry.getValue().lastAccess))
+                    .orElse(null);
+            if (leastRecent == null || !entries.remove(leastRecent.getKey(), leastRecent.getValue())) {
+                return;
+            }
+            evictions.increment();
+            log.debug("Из кэша популярных фильмов вытеснен список на {}", leastRecent.getKey());
+        }
+    }
+
+    private int cachedFilms() {
+        return entries.values().stream().mapToInt(entry -> entry.films.size()).sum();
+    }
+
+    private static List<Film> head(List<Film> films, int size) {
+        return size >= films.size() ? films : films.subList(0, size);
+    }
+
+    private record Key(Integer genreId, Long mpaId, Integer year, int bucket) {
+        boolean isFiltered() {
+            return genreId != null || mpaId != null || year != null;
+        }
+    }
+
+    // Порядок хранилища: по убыванию лайков, при равенстве по возрастанию id
+    private record Ranked(Film film, int likes) implements Comparable<Ranked> {
+        @Override
+        public int compareTo(Ranked other) {
+            return likes != other.likes
+                    ? Integer.compare(other.likes, likes)
+                    : Long.compare(film.getId(), other.film.getId());
+        }
+    }
+
+    private static final class Load {
+        final CompletableFuture<Entry> result = new CompletableFuture<>();
+        // Условия сбросов, прошедших во время чтения хранилища
+        final List<BiPredicate<Key, Entry>> invalidations = new CopyOnWriteArrayList<>();
+    }
+
+    private static final class Entry {
+        final List<Film> films;
+        // Счётчики лайков в порядке films: у фильмов in-memory хранилища счётчик меняется на месте
+        final int[] likes;
+        final long[] sortedIds;
+        final boolean partial;
+        final long loadedAt;
+        volatile long lastAccess;
+
+        Entry(List<Film> films, int[] likes, int bucket, long loadedAt) {
+            this(List.copyOf(films), likes, films.stream().mapToLong(Film::getId).sorted().toArray(),
+                    films.size() < bucket, loadedAt);
+        }
+
+        private Entry(List<Film> films, int[] likes, long[] sortedIds, boolean partial, long loadedAt) {
+            this.films = films;
+            this.likes = likes;
+            this.sortedIds = sortedIds;
+            this.partial = partial;
+            this.loadedAt = loadedAt;
+            this.lastAccess = loadedAt;
+        }
+
+        boolean contains(long filmId) {
+            return Arrays.binarySearch(sortedIds, filmId) >= 0;
+        }
+
+        boolean isPartial() {
+            return partial;
+        }
+
+        /**
+         * Копия списка с изменённым счётчиком фильма и его новой позицией либо {@code null},
+         * если фильм опустился до границы полного списка и порядок за ней неизвестен.
+         */
+        Entry withLikes(long filmId, int delta) {
+            int from = 0;
+            while (films.get(from).getId() != filmId) {
+                from++;
+            }
+            int count = likes[from] + delta;
+            if (!partial && delta < 0 && count <= likes[likes.length - 1]) {
+                return null;
+            }
+
+            List<Film> reorderedFilms = new ArrayList<>(films);
+            int[] reorderedLikes = likes.clone();
+            Film film = reorderedFilms.remove(from);
+            int to = 0;
+            while (to < reorderedFilms.size() && ranksBefore(likes[to < from ? to : to + 1],
+                    reorderedFilms.get(to).getId(), count, filmId)) {
+                to++;
+            }
+            reorderedFilms.add(to, film);
+            if (to < from) {
+                System.arraycopy(likes, to, reorderedLikes, to + 1, from - to);
+            } else {
+                System.arraycopy(likes, from + 1, reorderedLikes, from, to - from);
+            }
+            reorderedLikes[to] = count;
+
+            Entry reordered = new Entry(Collections.unmodifiableList(reorderedFilms), reorderedLikes, sortedIds,
+                    partial, loadedAt);
+            reordered.lastAccess = lastAccess;
+            return reordered;
+        }
+
+        // Порядок хранилища: по убыванию лайков, при равенстве по возрастанию id
+        private static boolean ranksBefore(int likes, long id, int otherLikes, long otherId) {
+            return likes > otherLikes || (likes == otherLikes && id < otherId);
+        }
+    }
+}
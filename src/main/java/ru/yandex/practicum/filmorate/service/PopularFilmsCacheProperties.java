@@ -0,0 +1,42 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Настройки кэша популярных фильмов, префикс {@code filmorate.popular-cache}.
+ */
+@Data
+@ConfigurationProperties("filmorate.popular-cache")
+public class PopularFilmsCacheProperties {
+    /**
+     * Включает кэширование списков популярных фильмов.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Сколько живёт закэшированный список. Ограничивает задержку, с которой фильм вне списка
+     * попадает в него после новых лайков.
+     */
+    private Duration ttl = Duration.ofSeconds(5);
+
+    /**
+     * Размеры кэшируемых списков по возрастанию; запрос округляется вверх до ближайшего,
+     * запросы больше последнего идут мимо кэша.
+     */
+    private List<Integer> buckets = List.of(10, 20, 50, 100, 250, 500, 1000);
+
+    /**
+     * Сколько фильмов суммарно хранят все списки; при превышении вытесняются давно не читавшиеся.
+     */
+    private int maxFilms = 2000;
+
+    /**
+     * Сколько фильмов вне списка с наибольшим приростом несброшенных лайков догружается при чтении,
+     * когда включена отложенная запись лайков.
+     */
+    private int pendingCandidates = 100;
+}
@@ -0,0 +1,32 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки рекомендаций по совместным лайкам, префикс {@code filmorate.recommendations}.
+ */
+@Data
+@ConfigurationProperties("filmorate.recommendations")
+public class RecommendationProperties {
+    /**
+     * Сколько похожих фильмов хранится для каждого фильма.
+     */
+    private int neighbours = 50;
+
+    /**
+     * Максимальный размер ответа на запрос похожих фильмов или рекомендаций.
+     */
+    private int maxCount = 100;
+
+    /**
+     * Сколько фильмов пользователя получают обновлённое сходство сразу при его лайке; у остальных
+     * пара уточняется при плановой перестройке.
+     */
+    private int likeFanOut = 1000;
+
+    /**
+     * Число потоков пересчёта сходства; 0 — по числу процессоров.
+     */
+    private int parallelism = 0;
+}
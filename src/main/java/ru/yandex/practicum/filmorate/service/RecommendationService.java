@@ -0,0 +1,327 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.model.LikeChange;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.SortedLongSet;
+import ru.yandex.practicum.filmorate.storage.TopK;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Рекомендации «с этим фильмом также лайкали» и персональные рекомендации по совместным лайкам.
+ * <p>
+ * В памяти держится двудольный граф лайков: пользователи фильма и фильмы пользователя на
+ * {@link SortedLongSet}. Сходство фильмов f и g — косинусное: число пользователей, лайкнувших оба,
+ * делённое на корень из произведения числа их лайков. Для каждого фильма заранее посчитан список
+ * ближайших соседей, поэтому запрос — чтение готового массива.
+ * <p>
+ * Лайк меняет совместные счётчики фильма только с фильмами этого пользователя: в их строках
+ * обновляется одна пара, сходство которой считается пересечением пользователей двух фильмов.
+ * Число таких пар на лайк ограничено настройкой {@code like-fan-out}. Строка самого фильма помечается
+ * устаревшей и пересчитывается фоном параллельно в пуле fork-join. Нормировка соседей, чьи строки
+ * лайк не задел, и пары сверх ограничения уточняются при полной перестройке по расписанию.
+ */
+@Slf4j
+@Service
+@EnableConfigurationProperties(RecommendationProperties.class)
+public class RecommendationService {
+    private final FilmStorage filmStorage;
+    private final RecommendationProperties properties;
+    private final ForkJoinPool pool;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<Long, SortedLongSet> likersByFilm = new HashMap<>();
+    private Map<Long, SortedLongSet> likesByUser = new HashMap<>();
+    // Лайки, пришедшие во время перестройки: применяются к новому графу после загрузки
+    private List<LikeChange> changesDuringRebuild;
+
+    private final Set<Long> staleFilms = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Neighbours> neighbours = new ConcurrentHashMap<>();
+
+    public RecommendationService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
+                                 RecommendationProperties properties) {
+        this.filmStorage = filmStorage;
+        this.properties = properties;
+        this.pool = properties.getParallelism() > 0
+                ? new ForkJoinPool(properties.getParallelism())
+                : new ForkJoinPool();
+    }
+
+    /**
+     * Загружает граф лайков из хранилища и пересчитывает соседей всех фильмов.
+     */
+    @PostConstruct
+    @Scheduled(initialDelayString = "${filmorate.recommendations.rebuild-interval:PT1H}",
+            fixedDelayString = "${filmorate.recommendations.rebuild-interval:PT1H}")
+    public void rebuild() {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Map<Long, SortedLongSet> loadedLikers = new HashMap<>();
+        Map<Long, SortedLongSet> loadedLikes = new HashMap<>();
+        try {
+            filmStorage.streamLikes((filmId, userId) -> apply(loadedLikers, loadedLikes, filmId, userId, true));
+            loadedLikers.values().forEach(SortedLongSet::trimToSize);
+            loadedLikes.values().forEach(SortedLongSet::trimToSize);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                List<LikeChange> missed = changesDuringRebuild;
+                changesDuringRebuild = null;
+                if (missed != null) {
+                    for (LikeChange change : missed) {
+                        apply(loadedLikers, loadedLikes, change.getFilmId(), change.getUserId(), change.isLiked());
+                    }
+                }
+                likersByFilm = loadedLikers;
+                likesByUser = loadedLikes;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        Set<Long> films = new HashSet<>(loadedLikers.keySet());
+        neighbours.keySet().retainAll(films);
+        recompute(films);
+        log.info("Индекс рекомендаций перестроен за {} мс: фильмов с лайками {}, пользователей {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), films.size(), loadedLikes.size());
+    }
+
+    /**
+     * Пересчитывает соседей фильмов, затронутых лайками с прошлого запуска.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.recommendations.refresh-interval:PT1S}")
+    public void refreshStale() {
+        if (staleFilms.isEmpty()) {
+            return;
+        }
+        List<Long> films = new ArrayList<>();
+        for (Iterator<Long> iterator = staleFilms.iterator(); iterator.hasNext(); ) {
+            films.add(iterator.next());
+            iterator.remove();
+        }
+        recompute(films);
+        log.debug("Пересчитаны соседи фильмов: {}", films.size());
+    }
+
+    public void onLikeChanged(long filmId, long userId, boolean liked) {
+        lock.writeLock().lock();
+        try {
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(new LikeChange(filmId, userId, liked));
+            }
+            if (!apply(likersByFilm, likesByUser, filmId, userId, liked)) {
+                return;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        staleFilms.add(filmId);
+        updatePairs(filmId, userId);
+    }
+
+    /**
+     * Пересчитывает сходство фильма с фильмами пользователя и обновляет эту пару в их строках соседей.
+     */
+    private void updatePairs(long filmId, long userId) {
+        long[] others;
+        double[] similarities;
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            SortedLongSet userFilms = likesByUser.get(userId);
+            if (userFilms == null) {
+                return;
+            }
+            SortedLongSet likers = likersByFilm.get(filmId);
+            int fanOut = Math.min(userFilms.size(), properties.getLikeFanOut());
+            others = new long[fanOut];
+            similarities = new double[fanOut];
+            for (int i = 0; i < userFilms.size() && count < fanOut; i++) {
+                long other = userFilms.get(i);
+                if (other == filmId) {
+                    continue;
+                }
+                SortedLongSet otherLikers = likersByFilm.get(other);
+                int common = likers == null ? 0 : likers.countCommon(otherLikers);
+                others[count] = other;
+                similarities[count] = common == 0 ? 0 : common / Math.sqrt((double) likers.size() * otherLikers.size());
+                count++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int i = 0; i < count; i++) {
+            double similarity = similarities[i];
+            neighbours.compute(others[i], (id, row) -> withNeighbour(row, filmId, similarity));
+        }
+    }
+
+    private Neighbours withNeighbour(Neighbours row, long filmId, double similarity) {
+        TopK top = new TopK(properties.getNeighbours());
+        if (row != null) {
+            for (int i = 0; i < row.filmIds().length; i++) {
+                if (row.filmIds()[i] != filmId) {
+                    top.offer(row.filmIds()[i], row.scores()[i]);
+                }
+            }
+        }
+        if (similarity > 0) {
+            top.offer(filmId, similarity);
+        }
+        long[] ids = top.ids();
+        return ids.length == 0 ? null : new Neighbours(ids, top.scores());
+    }
+
+    /**
+     * Фильмы, похожие на заданный, по убыванию сходства.
+     */
+    public List<Long> getSimilarFilms(long filmId, int count) {
+        validateCount(count);
+        Neighbours filmNeighbours = neighbours.get(filmId);
+        if (filmNeighbours == null) {
+            return List.of();
+        }
+        int size = Math.min(count, filmNeighbours.filmIds().length);
+        List<Long> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(filmNeighbours.filmIds()[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Фильмы, которых пользователь не лайкал, по сумме сходства с его лайками.
+     */
+    public List<Long> getRecommendations(long userId, int count) {
+        validateCount(count);
+        long[] liked;
+        lock.readLock().lock();
+        try {
+            SortedLongSet userFilms = likesByUser.get(userId);
+            if (userFilms == null) {
+                return List.of();
+            }
+            liked = userFilms.toLongArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Map<Long, Double> scores = new HashMap<>();
+        for (long filmId : liked) {
+            Neighbours filmNeighbours = neighbours.get(filmId);
+            if (filmNeighbours == null) {
+                continue;
+            }
+            for (int i = 0; i < filmNeighbours.filmIds().length; i++) {
+                long candidate = filmNeighbours.filmIds()[i];
+                if (Arrays.binarySearch(liked, candidate) < 0) {
+                    scores.merge(candidate, filmNeighbours.scores()[i], Double::sum);
+                }
+            }
+        }
+        TopK top = new TopK(count);
+        scores.forEach(top::offer);
+        return top.idList();
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    private void validateCount(int count) {
+        if (count <= 0 || count > properties.getMaxCount()) {
+            throw new ConditionsNotMetException("Количество фильмов должно быть от 1 до " + properties.getMaxCount());
+        }
+    }
+
+    private void recompute(Collection<Long> films) {
+        if (films.isEmpty()) {
+            return;
+        }
+        pool.submit(() -> films.parallelStream().forEach(this::recomputeFilm)).join();
+    }
+
+    /**
+     * Считает совместные лайки фильма со всеми фильмами его пользователей: счётчик по каждому фильму-кандидату
+     * растёт при обходе списков лайков пользователей, так что память зависит от числа кандидатов,
+     * а не от суммарной длины этих списков.
+     */
+    private void recomputeFilm(long filmId) {
+        TopK top = new TopK(properties.getNeighbours());
+        lock.readLock().lock();
+        try {
+            SortedLongSet likers = likersByFilm.get(filmId);
+            if (likers == null || likers.isEmpty()) {
+                neighbours.remove(filmId);
+                return;
+            }
+            Map<Long, Integer> coLiked = new HashMap<>();
+            likers.forEachLong(userId -> likesByUser.get(userId).forEachLong(candidate -> {
+                if (candidate != filmId) {
+                    coLiked.merge(candidate, 1, Integer::sum);
+                }
+            }));
+            double filmLikes = likers.size();
+            coLiked.forEach((candidate, common) -> top.offer(candidate,
+                    common / Math.sqrt(filmLikes * likersByFilm.get(candidate).size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+        neighbours.put(filmId, new Neighbours(top.ids(), top.scores()));
+    }
+
+    private static boolean apply(Map<Long, SortedLongSet> likersByFilm, Map<Long, SortedLongSet> likesByUser,
+                                 long filmId, long userId, boolean liked) {
+        if (liked) {
+            boolean added = likersByFilm.computeIfAbsent(filmId, id -> new SortedLongSet()).add(userId);
+            likesByUser.computeIfAbsent(userId, id -> new SortedLongSet()).add(filmId);
+            return added;
+        }
+        boolean removed = removeEdge(likersByFilm, filmId, userId);
+        removeEdge(likesByUser, userId, filmId);
+        return removed;
+    }
+
+    private static boolean removeEdge(Map<Long, SortedLongSet> edges, long from, long to) {
+        SortedLongSet targets = edges.get(from);
+        if (targets == null || !targets.remove(to)) {
+            return false;
+        }
+        if (targets.isEmpty()) {
+            edges.remove(from);
+        }
+        return true;
+    }
+
+    private record Neighbours(long[] filmIds, double[] scores) {
+    }
+}
@@ -0,0 +1,98 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Кэш справочников жанров и MPA рейтингов.
+ * <p>
+ * Справочники почти не меняются, поэтому загружаются целиком при старте и затем
+ * по расписанию или вызову {@link #refresh()}. Поиск по id идёт по неизменяемым
+ * массивам без обращений к базе.
+ */
+@Component
+@Slf4j
+public class ReferenceDataCache {
+    private final GenreDbStorage genreStorage;
+    private final MpaRatingDbStorage mpaStorage;
+
+    private volatile Snapshot snapshot = new Snapshot(List.of(), new Genre[0], List.of(), new MpaRating[0], 0);
+
+    public ReferenceDataCache(@Qualifier("GenreDbStorage") GenreDbStorage genreStorage,
+                              @Qualifier("MpaRatingDbStorage") MpaRatingDbStorage mpaStorage) {
+        this.genreStorage = genreStorage;
+        this.mpaStorage = mpaStorage;
+    }
+
+    @PostConstruct
+    @Scheduled(initialDelayString = "${filmorate.reference-data.refresh-interval:PT10M}",
+            fixedDelayString = "${filmorate.reference-data.refresh-interval:PT10M}")
+    public void refresh() {
+        List<Genre> genres = genreStorage.getAllGenres().stream()
+                .sorted(Comparator.comparing(Genre::getId))
+                .toList();
+        List<MpaRating> mpaRatings = mpaStorage.getAllMpaRatings().stream()
+                .sorted(Comparator.comparing(MpaRating::getId))
+                .toList();
+
+        Genre[] genresById = new Genre[genres.isEmpty() ? 0 : genres.get(genres.size() - 1).getId() + 1];
+        genres.forEach(genre -> genresById[genre.getId()] = genre);
+        MpaRating[] mpaById = new MpaRating[mpaRatings.isEmpty()
+                ? 0 : Math.toIntExact(mpaRatings.get(mpaRatings.size() - 1).getId() + 1)];
+        mpaRatings.forEach(mpa -> mpaById[Math.toIntExact(mpa.getId())] = mpa);
+
+        Snapshot previous = snapshot;
+        // Версия растёт только при изменении содержимого: от неё зависят кэши, включающие названия
+        long version = genres.equals(previous.genres()) && mpaRatings.equals(previous.mpaRatings())
+                ? previous.version() : previous.version() + 1;
+        snapshot = new Snapshot(genres, genresById, mpaRatings, mpaById, version);
+        log.debug("Справочники загружены: жанров {}, MPA рейтингов {}", genres.size(), mpaRatings.size());
+    }
+
+    /**
+     * Номер версии справочников; меняется, когда после перезагрузки изменилось их содержимое.
+     */
+    public long getVersion() {
+        return snapshot.version();
+    }
+
+    public Collection<Genre> getAllGenres() {
+        return snapshot.genres();
+    }
+
+    public Optional<Genre> getGenreById(Integer id) {
+        Genre[] genresById = snapshot.genresById();
+        if (id == null || id < 0 || id >= genresById.length) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(genresById[id]);
+    }
+
+    public Collection<MpaRating> getAllMpaRatings() {
+        return snapshot.mpaRatings();
+    }
+
+    public Optional<MpaRating> getMpaRatingById(Long id) {
+        MpaRating[] mpaById = snapshot.mpaById();
+        if (id == null || id < 0 || id >= mpaById.length) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(mpaById[id.intValue()]);
+    }
+
+    private record Snapshot(List<Genre> genres, Genre[] genresById, List<MpaRating> mpaRatings, MpaRating[] mpaById,
+                            long version) {
+    }
+}
@@ -0,0 +1,33 @@
+package ru.yandex.practicum.filmorate.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Настройки трендовых фильмов, префикс {@code filmorate.trending}.
+ */
+@Data
+@ConfigurationProperties("filmorate.trending")
+public class TrendingProperties {
+    /**
+     * Время, за которое вклад лайка в очки фильма уменьшается вдвое.
+     */
+    private Duration halfLife = Duration.ofHours(24);
+
+    /**
+     * Ширина временной корзины: лайки одной корзины имеют одинаковый вес.
+     */
+    private Duration bucket = Duration.ofHours(1);
+
+    /**
+     * Окно учёта лайков; корзины старше окна вычитаются из очков.
+     */
+    private Duration window = Duration.ofDays(7);
+
+    /**
+     * Максимальный размер ответа на запрос трендовых фильмов.
+     */
+    private int maxCount = 100;
+}
@@ -0,0 +1,245 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.LongHashSet;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Трендовые фильмы: лайки с экспоненциальным затуханием во времени.
+ * <p>
+ * Вклад лайка уменьшается вдвое за период полураспада. Очки не пересчитываются на каждом запросе:
+ * лайк прибавляет к очкам фильма вес 2^((t - t0) / halfLife) от фиксированной опорной точки t0
+ * (прямое затухание). Текущие очки всех фильмов отличаются от накопленных одним общим множителем,
+ * поэтому порядок фильмов со временем не меняется и рейтинг хранится упорядоченным: топ читается
+ * с головы за O(K), лайк переставляет один фильм за O(log n).
+ * <p>
+ * Лайки собираются во временные корзины, вес лайка считается по началу его корзины. Корзина,
+ * вышедшая за окно, вычитает свой вклад из очков, и давно лайкнутые фильмы покидают рейтинг.
+ * Когда веса новых лайков вырастают, опорная точка сдвигается и очки пересчитываются по корзинам окна.
+ */
+@Slf4j
+@Service
+@EnableConfigurationProperties(TrendingProperties.class)
+public class TrendingService {
+    // Предел роста весов относительно опорной точки: очки остаются точными после вычитаний
+    private static final double MAX_EXPONENT = 32;
+
+    private final FilmStorage filmStorage;
+    private final TrendingProperties properties;
+    private final Clock clock;
+    private final long bucketMillis;
+    private final long windowMillis;
+    private final double halfLifeMillis;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Корзины по времени начала: пользователи, лайкнувшие фильм в пределах корзины
+    private final NavigableMap<Long, Map<Long, LongHashSet>> buckets = new TreeMap<>();
+    private final Map<Long, Score> scores = new HashMap<>();
+    private final NavigableSet<Rank> ranking = new TreeSet<>();
+    private long landmark;
+
+    @Autowired
+    public TrendingService(@Qualifier("filmDbStorage") FilmStorage filmStorage, TrendingProperties properties) {
+        this(filmStorage, properties, Clock.systemUTC());
+    }
+
+    public TrendingService(FilmStorage filmStorage, TrendingProperties properties, Clock clock) {
+        this.filmStorage = filmStorage;
+        this.properties = properties;
+        this.clock = clock;
+        this.bucketMillis = properties.getBucket().toMillis();
+        this.windowMillis = properties.getWindow().toMillis();
+        this.halfLifeMillis = properties.getHalfLife().toMillis();
+        this.landmark = bucketStart(clock.millis() - windowMillis);
+    }
+
+    /**
+     * Загружает лайки окна из хранилища.
+     */
+    @PostConstruct
+    public void load() {
+        long started = System.nanoTime();
+        Instant since = Instant.ofEpochMilli(clock.millis() - windowMillis);
+        int[] loaded = new int[1];
+        lock.writeLock().lock();
+        try {
+            filmStorage.streamLikesSince(since, (filmId, userId, likedAt) -> {
+                add(filmId, userId, likedAt);
+                loaded[0]++;
+            });
+            buckets.values().forEach(films -> films.values().forEach(LongHashSet::trimToSize));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Тренды загружены за {} мс: лайков в окне {}, фильмов {}",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), loaded[0], scores.size());
+    }
+
+    public void onLikeChanged(long filmId, long userId, boolean liked) {
+        lock.writeLock().lock();
+        try {
+            if (liked) {
+                add(filmId, userId, clock.millis());
+            } else {
+                remove(filmId, userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Фильмы по убыванию затухающих очков.
+     */
+    public List<Long> getTrending(int count) {
+        if (count <= 0 || count > properties.getMaxCount()) {
+            throw new ConditionsNotMetException("Количество фильмов должно быть от 1 до " + properties.getMaxCount());
+        }
+        lock.readLock().lock();
+        try {
+            List<Long> result = new ArrayList<>(Math.min(count, ranking.size()));
+            Iterator<Rank> iterator = ranking.iterator();
+            while (result.size() < count && iterator.hasNext()) {
+                result.add(iterator.next().filmId());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Текущие очки фильма: сумма весов его лайков в окне, затухших к данному моменту.
+     */
+    public double getScore(long filmId) {
+        lock.readLock().lock();
+        try {
+            Score score = scores.get(filmId);
+            return score == null ? 0 : score.value() / weight(clock.millis());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Убирает корзины, вышедшие за окно, и при необходимости сдвигает опорную точку весов.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.trending.expire-interval:PT1M}")
+    public void expire() {
+        long now = clock.millis();
+        lock.writeLock().lock();
+        try {
+            long cutoff = now - windowMillis;
+            while (!buckets.isEmpty() && buckets.firstKey() + bucketMillis <= cutoff) {
+                Map.Entry<Long, Map<Long, LongHashSet>> expired = buckets.pollFirstEntry();
+                double bucketWeight = weight(expired.getKey());
+                expired.getValue().forEach((filmId, users) ->
+                        change(filmId, -bucketWeight * users.size(), -users.size()));
+            }
+            if ((now - landmark) / halfLifeMillis > MAX_EXPONENT) {
+                rescale(bucketStart(cutoff));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(long filmId, long userId, long likedAt) {
+        if (likedAt < clock.millis() - windowMillis) {
+            return;
+        }
+        long start = bucketStart(likedAt);
+        if (buckets.computeIfAbsent(start, key -> new HashMap<>())
+                .computeIfAbsent(filmId, key -> new LongHashSet())
+                .add(userId)) {
+            change(filmId, weight(start), 1);
+        }
+    }
+
+    /**
+     * Снятый лайк вычитается из корзины, где он был поставлен; лайк старше окна в очках уже не учтён.
+     */
+    private void remove(long filmId, long userId) {
+        for (Map.Entry<Long, Map<Long, LongHashSet>> bucket : buckets.descendingMap().entrySet()) {
+            LongHashSet users = bucket.getValue().get(filmId);
+            if (users != null && users.remove(userId)) {
+                if (users.isEmpty()) {
+                    bucket.getValue().remove(filmId);
+                }
+                change(filmId, -weight(bucket.getKey()), -1);
+                return;
+            }
+        }
+    }
+
+    private void change(long filmId, double delta, int likesDelta) {
+        Score old = scores.get(filmId);
+        if (old != null) {
+            ranking.remove(new Rank(old.value(), filmId));
+        }
+        int likes = (old == null ? 0 : old.likes()) + likesDelta;
+        if (likes <= 0) {
+            // Без лайков в окне фильм покидает рейтинг целиком, не оставляя погрешности вычитаний
+            scores.remove(filmId);
+            return;
+        }
+        Score updated = new Score((old == null ? 0 : old.value()) + delta, likes);
+        scores.put(filmId, updated);
+        ranking.add(new Rank(updated.value(), filmId));
+    }
+
+    /**
+     * Переносит опорную точку и пересчитывает очки из корзин; порядок фильмов при этом не меняется.
+     */
+    private void rescale(long newLandmark) {
+        landmark = newLandmark;
+        scores.clear();
+        ranking.clear();
+        buckets.forEach((start, films) -> {
+            double bucketWeight = weight(start);
+            films.forEach((filmId, users) -> change(filmId, bucketWeight * users.size(), users.size()));
+        });
+        log.debug("Опорная точка трендов сдвинута, фильмов в рейтинге: {}", scores.size());
+    }
+
+    private double weight(long time) {
+        return Math.pow(2, (time - landmark) / halfLifeMillis);
+    }
+
+    private long bucketStart(long time) {
+        return time - Math.floorMod(time, bucketMillis);
+    }
+
+    private record Score(double value, int likes) {
+    }
+
+    private record Rank(double score, long filmId) implements Comparable<Rank> {
+        @Override
+        public int compareTo(Rank other) {
+            int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : Long.compare(filmId, other.filmId);
+        }
+    }
+}
@@ -2,45 +2,139 @@ package ru.yandex.practicum.filmorate.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.ImportResult;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 public class UserService {
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SUGGESTIONS = 100;
+
     private final UserStorage userStorage;
+    private final BatchImporter<User> importer;
 
-    public UserService(@Qualifier("userDbStorage") UserStorage userStorage) {
+    public UserService(@Qualifier("userDbStorage") UserStorage userStorage,
+                       @Value("${filmorate.import.batch-size:500}") int importBatchSize) {
         this.userStorage = userStorage;
+        this.importer = new BatchImporter<>(importBatchSize, this::validateUser, userStorage::addAll, userStorage::add);
     }
 
     public Collection<User> getAll() {
         return userStorage.getAll();
     }
 
+    public List<User> getPage(long afterId, int size) {
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new ConditionsNotMetException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+        return userStorage.getPage(afterId, size);
+    }
+
+    public void streamAll(Consumer<User> consumer) {
+        userStorage.streamAll(consumer);
+    }
+
     public User add(User user) {
-        if (user.getEmail() == null || !user.getEmail().contains("@")) {
+        validateUser(user);
+        return userStorage.add(user);
+    }
+
+    public ImportResult importUsers(Iterator<User> users) {
+        ImportResult result = importer.run(users);
+        log.info("Загружено пользователей: {}, отклонено записей: {}", result.getImported(), result.getErrors().size());
+        return result;
+    }
+
+    private void validateUser(User user) {
+        validateEmail(user.getEmail());
+        validateName(user.getName());
+    }
+
+    private static void validateEmail(String email) {
+        if (email == null || !email.contains("@")) {
             throw new ValidationException("Некорректный email");
         }
-        if (user.getName() == null || user.getName().isBlank()) {
+    }
+
+    private static void validateName(String name) {
+        if (name == null || name.isBlank()) {
             throw new ValidationException("Имя пользователя не может быть пустым");
         }
-
-        return userStorage.add(user);
     }
 
     public User update(User user) {
+        if (user.getId() == null) {
+            throw new NotFoundException("Пользователь с id null не найден");
+        }
         return userStorage.update(user);
     }
 
+    /**
+     * Обновление с условием If-Match: пользователь перезаписывается, только если ETag совпал с текущей версией.
+     * Без заголовка (или с «*») условием служит версия из тела, если клиент её передал.
+     */
+    public User update(User user, List<String> ifMatch) {
+        if (user.getId() != null && VersionETag.isConditional(ifMatch)) {
+            user.setVersion(matchedVersion(user.getId(), ifMatch));
+        }
+        return update(user);
+    }
+
+    /**
+     * Частичное обновление: в базу пишутся только переданные поля, условие If-Match — как в update.
+     */
+    public User patch(long id, UserPatch patch, List<String> ifMatch) {
+        if (patch.getEmail() != null) {
+            validateEmail(patch.getEmail());
+        }
+        if (patch.getName() != null) {
+            validateName(patch.getName());
+        }
+        if (VersionETag.isConditional(ifMatch)) {
+            patch.setVersion(matchedVersion(id, ifMatch));
+        }
+        long version = userStorage.patch(id, patch);
+        log.info("Пользователь с id: {} частично обновлён до версии {}", id, version);
+        return findUserByIdOrThrow(id);
+    }
+
+    /**
+     * ETag пользователя — его версия.
+     */
+    public static String eTag(User user) {
+        return VersionETag.of(user.getVersion());
+    }
+
+    /**
+     * ETag несёт версию, поэтому один ETag проверяется самим условным UPDATE без предварительного чтения.
+     * Из нескольких ETag выбирается совпавший с текущей версией.
+     */
+    private long matchedVersion(long id, List<String> ifMatch) {
+        List<Long> versions = VersionETag.versions(ifMatch);
+        if (versions.size() == 1) {
+            return versions.get(0);
+        }
+        long current = findUserByIdOrThrow(id).getVersion();
+        if (!versions.contains(current)) {
+            throw new PreconditionFailedException("Пользователь с id " + id + " изменён: ETag не совпадает с текущим");
+        }
+        return current;
+    }
+
     public User getById(long id) {
         return findUserByIdOrThrow(id);
     }
@@ -68,13 +162,17 @@ public class UserService {
     public List<User> getCommonFriends(long userId, long otherUserId) {
         findUserByIdOrThrow(userId);
         findUserByIdOrThrow(otherUserId);
-        Set<Long> userFriends = userStorage.getFriends(userId).stream().map(User::getId).collect(Collectors.toSet());
-        Set<Long> otherUserFriends = userStorage.getFriends(otherUserId).stream().map(User::getId).collect(Collectors.toSet());
-        userFriends.retainAll(otherUserFriends);
         log.info("Получение списка общих друзей пользователя с id: {} и пользователя с id: {}", userId, otherUserId);
-        return userFriends.stream()
-                .map(this::findUserByIdOrThrow)
-                .collect(Collectors.toList());
+        return userStorage.getCommonFriends(userId, otherUserId);
+    }
+
+    public List<User> getFriendSuggestions(long userId, int count) {
+        if (count <= 0 || count > MAX_SUGGESTIONS) {
+            throw new ConditionsNotMetException("Количество рекомендаций должно быть от 1 до " + MAX_SUGGESTIONS);
+        }
+        findUserByIdOrThrow(userId);
+        log.info("Получение {} рекомендаций друзей для пользователя с id: {}", count, userId);
+        return userStorage.getFriendSuggestions(userId, count);
     }
 
     private User findUserByIdOrThrow(long id) {
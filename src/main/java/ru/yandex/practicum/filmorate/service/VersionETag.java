@@ -0,0 +1,39 @@
+package ru.yandex.practicum.filmorate.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ETag фильмов и пользователей — версия записи в кавычках.
+ * <p>
+ * Версия растёт при каждом изменении записи, поэтому If-Match с одним ETag превращается в условие
+ * версионного UPDATE без предварительного чтения.
+ */
+public final class VersionETag {
+    private VersionETag() {
+    }
+
+    public static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Версии из ETag заголовка If-Match; чужие и слабые ETag пропускаются.
+     */
+    public static List<Long> versions(List<String> ifMatch) {
+        List<Long> versions = new ArrayList<>();
+        for (String eTag : ifMatch) {
+            if (eTag.matches("\"\\d{1,18}\"")) {
+                versions.add(Long.parseLong(eTag.substring(1, eTag.length() - 1)));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Заголовок задаёт условие: без него или с «*» условием служит версия из тела, если клиент её передал.
+     */
+    public static boolean isConditional(List<String> ifMatch) {
+        return ifMatch != null && !ifMatch.isEmpty() && !ifMatch.contains("*");
+    }
+}
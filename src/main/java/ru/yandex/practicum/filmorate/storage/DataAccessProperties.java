@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки выборок хранилищ, префикс {@code filmorate.datasource}. Пул соединений настраивается
+ * свойствами {@code spring.datasource.hikari.*}.
+ */
+@Data
+@ConfigurationProperties("filmorate.datasource")
+public class DataAccessProperties {
+    /**
+     * Fetch size потоковых выборок и полных выгрузок getAll: сколько строк драйвер запрашивает у сервера
+     * за одно обращение. Встроенная H2 его не использует, значение действует только для {@code jdbc:h2:tcp://}.
+     */
+    private int scanFetchSize = StreamingStatementCreator.DEFAULT_FETCH_SIZE;
+}
@@ -0,0 +1,119 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Проверка настроек доступа к базе при старте: пишет в лог действующие размеры пула, кэш разобранных
+ * запросов H2 и fetch size выборок и предупреждает о сочетаниях, при которых настройка не работает.
+ */
+@Slf4j
+@Component
+@EnableConfigurationProperties(DataAccessProperties.class)
+public class DataAccessSelfCheck {
+    // Постоянные запросы хранилищ и варианты динамических (фильтры популярных, частичные обновления):
+    // кэш меньшего размера вытесняет их друг другом, и H2 разбирает SQL при каждом вызове
+    static final int HOT_STATEMENTS = 64;
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final DataAccessProperties properties;
+    private final DataSourceBulkheadProperties bulkhead;
+
+    public DataAccessSelfCheck(DataSource dataSource, JdbcTemplate jdbcTemplate, DataAccessProperties properties,
+                               Environment environment) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.properties = properties;
+        this.bulkhead = Binder.get(environment)
+                .bind(DataSourceBulkheadConfig.PREFIX, DataSourceBulkheadProperties.class)
+                .orElseGet(DataSourceBulkheadProperties::new);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        check();
+    }
+
+    public Report check() {
+        HikariDataSource pool = unwrapPool();
+        String queryCacheSize = jdbcTemplate.query(
+                "SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE SETTING_NAME = 'QUERY_CACHE_SIZE'",
+                rs -> rs.next() ? rs.getString(1) : null);
+        Report report = new Report(
+                pool != null ? pool.getPoolName() : null,
+                pool != null ? pool.getMaximumPoolSize() : null,
+                pool != null ? pool.getMinimumIdle() : null,
+                pool != null ? pool.getConnectionTimeout() : null,
+                queryCacheSize != null ? Integer.valueOf(queryCacheSize) : null,
+                properties.getScanFetchSize(),
+                jdbcTemplate.getFetchSize(),
+                bulkhead.isEnabled() ? bulkhead.getMaxConcurrent() : null,
+                new ArrayList<>());
+        collectWarnings(report);
+
+        log.info("Доступ к базе: пул {} (размер {}, минимум простаивающих {}, ожидание соединения {} мс), " +
+                        "кэш разобранных запросов H2 {}, fetch size выборок {}, fetch size JdbcTemplate {}, " +
+                        "ограничитель {}",
+                report.poolName(), report.maximumPoolSize(), report.minimumIdle(), report.connectionTimeoutMillis(),
+                report.queryCacheSize(), report.scanFetchSize(), report.templateFetchSize(),
+                report.bulkheadMaxConcurrent() != null ? report.bulkheadMaxConcurrent() : "выключен");
+        report.warnings().forEach(warning -> log.warn("Доступ к базе: {}", warning));
+        return report;
+    }
+
+    private static void collectWarnings(Report report) {
+        List<String> warnings = report.warnings();
+        if (report.maximumPoolSize() == null) {
+            warnings.add("источник данных без пула HikariCP, соединение открывается на каждое обращение");
+        } else {
+            if (report.minimumIdle() < report.maximumPoolSize()) {
+                warnings.add("пул переменного размера (" + report.minimumIdle() + ".." + report.maximumPoolSize() +
+                        "): под нагрузкой соединения открываются на горячем пути");
+            }
+            if (report.bulkheadMaxConcurrent() != null
+                    && report.bulkheadMaxConcurrent() > report.maximumPoolSize()) {
+                warnings.add("ограничитель пропускает " + report.bulkheadMaxConcurrent() + " потоков при пуле из " +
+                        report.maximumPoolSize() + " соединений: лишние потоки ждут внутри пула");
+            }
+        }
+        if (report.queryCacheSize() != null && report.queryCacheSize() < HOT_STATEMENTS) {
+            warnings.add("QUERY_CACHE_SIZE=" + report.queryCacheSize() + " меньше числа горячих запросов (" +
+                    HOT_STATEMENTS + "): подготовленные выражения разбираются заново");
+        }
+        if (report.templateFetchSize() > 0) {
+            // JdbcTemplate применяет свой fetch size после создания выражения и перекрывает настройку выборок
+            warnings.add("spring.jdbc.template.fetch-size=" + report.templateFetchSize() +
+                    " перекрывает fetch size потоковых выборок " + report.scanFetchSize());
+        }
+    }
+
+    private HikariDataSource unwrapPool() {
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Действующие настройки доступа к базе. Поля пула равны null, если источник данных не HikariCP,
+     * поле ограничителя — если он выключен.
+     */
+    public record Report(String poolName, Integer maximumPoolSize, Integer minimumIdle, Long connectionTimeoutMillis,
+                         Integer queryCacheSize, int scanFetchSize, int templateFetchSize,
+                         Integer bulkheadMaxConcurrent, List<String> warnings) {
+    }
+}
@@ -0,0 +1,67 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+@Slf4j
+@Configuration
+public class DataSourceBulkheadConfig {
+    static final String PREFIX = "filmorate.datasource.bulkhead";
+
+    /**
+     * Ставит ограничитель перед пулом соединений, если он включён. Настройки читаются напрямую из окружения:
+     * постпроцессор создаётся раньше бинов свойств.
+     */
+    @Bean
+    public static BeanPostProcessor bulkheadDataSourcePostProcessor(Environment environment) {
+        DataSourceBulkheadProperties properties = Binder.get(environment)
+                .bind(PREFIX, DataSourceBulkheadProperties.class)
+                .orElseGet(DataSourceBulkheadProperties::new);
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (properties.isEnabled() && bean instanceof DataSource dataSource
+                        && !(bean instanceof BulkheadDataSource)) {
+                    log.info("Ограничитель обращений к базе включён: {} соединений, ожидание {}",
+                            properties.getMaxConcurrent(), properties.getAcquireTimeout());
+                    return new BulkheadDataSource(dataSource, properties.getMaxConcurrent(),
+                            properties.getAcquireTimeout());
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder bulkheadMeterBinder(DataSource dataSource) {
+        return registry -> {
+            BulkheadDataSource bulkhead = unwrap(dataSource);
+            if (bulkhead != null) {
+                Gauge.builder("filmorate.jdbc.bulkhead.waiting", bulkhead, BulkheadDataSource::getWaitingThreads)
+                        .description("Потоков, ожидающих разрешения на соединение")
+                        .register(registry);
+                Gauge.builder("filmorate.jdbc.bulkhead.available", bulkhead, BulkheadDataSource::getAvailablePermits)
+                        .description("Свободных разрешений на соединение")
+                        .register(registry);
+            }
+        };
+    }
+
+    private static BulkheadDataSource unwrap(DataSource dataSource) {
+        try {
+            return dataSource.isWrapperFor(BulkheadDataSource.class)
+                    ? dataSource.unwrap(BulkheadDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
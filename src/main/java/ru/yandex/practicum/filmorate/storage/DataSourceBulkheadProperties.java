@@ -0,0 +1,26 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * Настройки ограничителя параллельных обращений к базе, префикс {@code filmorate.datasource.bulkhead}.
+ */
+@Data
+public class DataSourceBulkheadProperties {
+    /**
+     * Включает ограничитель перед пулом соединений.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Сколько потоков одновременно может держать соединение; обычно равно размеру пула.
+     */
+    private int maxConcurrent = 10;
+
+    /**
+     * Сколько поток ждёт разрешения, прежде чем запрос завершится ошибкой перегрузки.
+     */
+    private Duration acquireTimeout = Duration.ofSeconds(5);
+}
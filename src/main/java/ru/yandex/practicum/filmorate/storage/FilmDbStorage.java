@@ -1,39 +1,74 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
 import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.LikeChange;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.PreparedStatement;
-import java.sql.Statement;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Repository
 @Qualifier("filmDbStorage")
 public class FilmDbStorage implements FilmStorage {
+    // Вставка выполняется только если фильм и пользователь существуют, а лайка ещё нет;
+    // причина отказа выясняется отдельным запросом лишь в случае ошибки
+    private static final String INSERT_LIKE_SQL = "INSERT INTO film_likes (film_id, user_id) " +
+            "SELECT f.id, u.id FROM films f JOIN users u ON u.id = ? WHERE f.id = ? " +
+            "AND NOT EXISTS (SELECT 1 FROM film_likes l WHERE l.film_id = f.id AND l.user_id = u.id)";
+    private static final String DELETE_LIKE_SQL = "DELETE FROM film_likes WHERE film_id = ? AND user_id = ?";
+    // Копия счётчика в связях фильм-жанр для топа по жанру; двигается вместе с films.likes_count
+    private static final String GENRE_COUNTER_SQL =
+            "UPDATE film_genres SET likes_count = likes_count + ? WHERE film_id = ?";
 
     private final JdbcTemplate jdbcTemplate;
+    private final int scanFetchSize;
 
     public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new DataAccessProperties());
+    }
+
+    @Autowired
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, DataAccessProperties dataAccess) {
         this.jdbcTemplate = jdbcTemplate;
+        this.scanFetchSize = dataAccess.getScanFetchSize();
     }
 
-    private class FilmRowMapper implements RowMapper<Film> {
+    private static class FilmRowMapper implements RowMapper<Film> {
         @Override
         public Film mapRow(ResultSet rs, int rowNum) throws SQLException {
             // Извлечение MPA рейтинга
@@ -45,93 +80,329 @@ public class FilmDbStorage implements FilmStorage {
                 mpaRating = new MpaRating(mpaRatingId, mpaRatingName);
             }
 
-            Film film = new Film(
+            // Жанры подгружаются одним запросом на всю выборку в attachGenres
+            return new Film(
                     rs.getLong("id"),
                     rs.getString("name"),
                     rs.getString("description"),
                     rs.getDate("release_date").toLocalDate(),
                     rs.getInt("duration"),
                     new HashSet<>(),  // Пустой Set для likes
-                    new HashSet<>(),
-                    mpaRating
+                    new LinkedHashSet<>(),
+                    mpaRating,
+                    rs.getInt("likes_count"),
+                    rs.getLong("version")
             );
+        }
+    }
+
+    private static class FilmStreamHandler implements RowCallbackHandler {
+        private final FilmRowMapper filmRowMapper = new FilmRowMapper();
+        private final Consumer<Film> consumer;
+        private Film current;
+
+        FilmStreamHandler(Consumer<Film> consumer) {
+            this.consumer = consumer;
+        }
 
-            String genreSql = "SELECT g.genre_id, g.name FROM film_genres fg " +
-                    "JOIN genres g ON fg.genre_id = g.genre_id WHERE fg.film_id = ?";
-            List<Genre> genres = jdbcTemplate.query(genreSql, new GenreRowMapper(), film.getId());
-            film.setGenres(new HashSet<>(genres));
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long filmId = rs.getLong("id");
+            if (current == null || current.getId() != filmId) {
+                finish();
+                current = filmRowMapper.mapRow(rs, rs.getRow());
+            }
+            int genreId = rs.getInt("genre_id");
+            if (!rs.wasNull()) {
+                current.getGenres().add(new Genre(genreId, rs.getString("genre_name")));
+            }
+        }
 
-            return film;
+        void finish() {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
         }
     }
 
+    private List<Film> attachGenres(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        Long[] filmIds = films.stream().map(Film::getId).toArray(Long[]::new);
+        String sql = "SELECT fg.film_id, g.genre_id, g.name FROM film_genres fg " +
+                "JOIN genres g ON fg.genre_id = g.genre_id " +
+                "WHERE fg.film_id = ANY(?) ORDER BY fg.film_id, fg.genre_id";
+        return attachGenres(films, sql, (Object) filmIds);
+    }
+
+    private List<Film> attachGenres(List<Film> films, String sql, Object... args) {
+        Map<Long, Film> filmsById = new HashMap<>();
+        for (Film film : films) {
+            filmsById.put(film.getId(), film);
+        }
+        GenreRowMapper genreRowMapper = new GenreRowMapper();
+        RowCallbackHandler handler = rs -> {
+            Film film = filmsById.get(rs.getLong("film_id"));
+            if (film != null) {
+                film.getGenres().add(genreRowMapper.mapRow(rs, 0));
+            }
+        };
+        if (args.length == 0) {
+            // Связи всех фильмов читаются порциями, как и сами фильмы в getAll
+            jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize), handler);
+        } else {
+            jdbcTemplate.query(sql, handler, args);
+        }
+        return films;
+    }
+
     @Override
+    @Transactional
     public Film add(Film film) {
         String sql = "INSERT INTO films (name, description, release_date, duration, rating_id) VALUES (?, ?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         jdbcTemplate.update(connection -> {
-            PreparedStatement ps = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            ps.setString(1, film.getName());
-            ps.setString(2, film.getDescription());
-            ps.setDate(3, java.sql.Date.valueOf(film.getReleaseDate()));
-            ps.setInt(4, film.getDuration());
-            if (film.getMpaRating() != null) {
-                ps.setLong(5, film.getMpaRating().getId());
-            } else {
-                ps.setNull(5, java.sql.Types.BIGINT);
-            }
+            PreparedStatement ps = connection.prepareStatement(sql, new String[] {"id"});
+            setFilmParameters(ps, film);
             return ps;
         }, keyHolder);
 
         Long generatedId = keyHolder.getKey().longValue();
         film.setId(generatedId);
+        film.setVersion(0L);
 
-        // Сохранение жанров
+        // Сохранение жанров одним пакетом
         if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            String genreSql = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
-            for (Genre genre : film.getGenres()) {
-                jdbcTemplate.update(genreSql, film.getId(), genre.getId());
-            }
+            insertGenres(film.getId(), film.getGenres().stream().map(Genre::getId).toList());
         }
         return film;
     }
 
     @Override
-    public Film update(Film film) {
-        String sql = "UPDATE films SET name = ?, description = ?, release_date = ?, duration = ?, rating_id = ? WHERE id = ?";
-        int rowsAffected = jdbcTemplate.update(sql,
-                film.getName(),
-                film.getDescription(),
-                java.sql.Date.valueOf(film.getReleaseDate()),
-                film.getDuration(),
-                film.getMpaRating() != null ? film.getMpaRating().getId() : null,
-                film.getId()
-        );
+    @Transactional
+    public List<Film> addAll(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+        String sql = "INSERT INTO films (name, description, release_date, duration, rating_id) VALUES (?, ?, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(sql, new String[] {"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        setFilmParameters(ps, films.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return films.size();
+                    }
+                }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        List<Object[]> genreRows = new ArrayList<>();
+        for (int i = 0; i < films.size(); i++) {
+            Film film = films.get(i);
+            film.setId(((Number) keys.get(i).values().iterator().next()).longValue());
+            film.setVersion(0L);
+            if (film.getGenres() != null) {
+                film.getGenres().forEach(genre -> genreRows.add(new Object[] {film.getId(), genre.getId()}));
+            }
+        }
+        // Жанры всех фильмов пакета — одним batch-запросом
+        if (!genreRows.isEmpty()) {
+            String genreSql = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
+            jdbcTemplate.batchUpdate(genreSql, genreRows);
+        }
+        return films;
+    }
 
-        if (rowsAffected == 0) {
-            throw new NotFoundException("Фильм с id " + film.getId() + " не найден");
+    private static void setFilmParameters(PreparedStatement ps, Film film) throws SQLException {
+        ps.setString(1, film.getName());
+        ps.setString(2, film.getDescription());
+        ps.setDate(3, java.sql.Date.valueOf(film.getReleaseDate()));
+        ps.setInt(4, film.getDuration());
+        if (film.getMpaRating() != null) {
+            ps.setLong(5, film.getMpaRating().getId());
+        } else {
+            ps.setNull(5, java.sql.Types.BIGINT);
         }
+    }
 
+    @Override
+    @Transactional
+    public Film update(Film film) {
+        List<String> columns = List.of("name = ?", "description = ?", "release_date = ?", "duration = ?",
+                "rating_id = ?");
+        List<Object> args = Arrays.asList(film.getName(), film.getDescription(),
+                java.sql.Date.valueOf(film.getReleaseDate()), film.getDuration(),
+                film.getMpaRating() != null ? film.getMpaRating().getId() : null);
+        film.setVersion(updateVersioned(film.getId(), film.getVersion(), columns, args));
+
+        if (film.getGenres() != null) {
+            replaceGenres(film.getId(), film.getGenres());
+        }
         return film;
     }
 
+    @Override
+    @Transactional
+    public long patch(long id, FilmPatch patch) {
+        List<String> columns = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (patch.getName() != null) {
+            columns.add("name = ?");
+            args.add(patch.getName());
+        }
+        if (patch.getDescription() != null) {
+            columns.add("description = ?");
+            args.add(patch.getDescription());
+        }
+        if (patch.getReleaseDate() != null) {
+            columns.add("release_date = ?");
+            args.add(java.sql.Date.valueOf(patch.getReleaseDate()));
+        }
+        if (patch.getDuration() != null) {
+            columns.add("duration = ?");
+            args.add(patch.getDuration());
+        }
+        if (patch.getMpaRating() != null) {
+            columns.add("rating_id = ?");
+            args.add(patch.getMpaRating().getId());
+        }
+        long version = updateVersioned(id, patch.getVersion(), columns, args);
+
+        if (patch.getGenres() != null) {
+            replaceGenres(id, patch.getGenres());
+        }
+        return version;
+    }
+
+    /**
+     * Обновляет столбцы фильма и его версию одним запросом: проверка ожидаемой версии стоит в WHERE,
+     * а новая версия читается из изменённой строки. Причина отказа выясняется отдельным запросом
+     * лишь в случае, когда строка не обновилась.
+     */
+    private long updateVersioned(long id, Long expectedVersion, List<String> columns, List<Object> args) {
+        List<String> assignments = new ArrayList<>(columns);
+        assignments.add("version = version + 1");
+        List<Object> allArgs = new ArrayList<>(args);
+        allArgs.add(id);
+        String condition = "id = ?";
+        if (expectedVersion != null) {
+            condition += " AND version = ?";
+            allArgs.add(expectedVersion);
+        }
+        String sql = "SELECT version FROM FINAL TABLE (UPDATE films SET " + String.join(", ", assignments) +
+                " WHERE " + condition + ")";
+        List<Long> versions = jdbcTemplate.queryForList(sql, Long.class, allArgs.toArray());
+        if (!versions.isEmpty()) {
+            return versions.get(0);
+        }
+
+        List<Long> current = jdbcTemplate.queryForList("SELECT version FROM films WHERE id = ?", Long.class, id);
+        if (current.isEmpty()) {
+            throw new NotFoundException("Фильм с id " + id + " не найден");
+        }
+        throw new PreconditionFailedException("Фильм с id " + id + " изменён: ожидалась версия " +
+                expectedVersion + ", текущая " + current.get(0));
+    }
+
+    private void replaceGenres(long filmId, Collection<Genre> genres) {
+        // Пишем только разницу между текущими и новыми жанрами
+        String existingSql = "SELECT genre_id FROM film_genres WHERE film_id = ?";
+        Set<Integer> existing = new HashSet<>(jdbcTemplate.queryForList(existingSql, Integer.class, filmId));
+        Set<Integer> requested = genres.stream().map(Genre::getId).collect(Collectors.toSet());
+
+        List<Object[]> removed = existing.stream()
+                .filter(genreId -> !requested.contains(genreId))
+                .map(genreId -> new Object[] {filmId, genreId})
+                .toList();
+        if (!removed.isEmpty()) {
+            String deleteSql = "DELETE FROM film_genres WHERE film_id = ? AND genre_id = ?";
+            jdbcTemplate.batchUpdate(deleteSql, removed);
+        }
+        insertGenres(filmId, requested.stream().filter(genreId -> !existing.contains(genreId)).toList());
+    }
+
+    private void insertGenres(long filmId, List<Integer> genreIds) {
+        if (genreIds.isEmpty()) {
+            return;
+        }
+        // Новая связь получает текущий счётчик лайков фильма
+        String genreSql = "INSERT INTO film_genres (film_id, genre_id, likes_count) " +
+                "SELECT id, ?, likes_count FROM films WHERE id = ?";
+        jdbcTemplate.batchUpdate(genreSql, genreIds.stream()
+                .map(genreId -> new Object[] {genreId, filmId})
+                .toList());
+    }
+
     @Override
     public Collection<Film> getAll() {
         String sql = "SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id";
-        return jdbcTemplate.query(sql, new FilmRowMapper());
+        List<Film> films = jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize), new FilmRowMapper());
+        if (films.isEmpty()) {
+            return films;
+        }
+        // Для полной выборки фильтр по id не нужен: берём все связи фильм-жанр одним запросом
+        String genreSql = "SELECT fg.film_id, g.genre_id, g.name FROM film_genres fg " +
+                "JOIN genres g ON fg.genre_id = g.genre_id ORDER BY fg.film_id, fg.genre_id";
+        return attachGenres(films, genreSql);
+    }
+
+    @Override
+    public List<Film> getPage(long afterId, int size) {
+        String sql = "SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id " +
+                "WHERE f.id > ? ORDER BY f.id LIMIT ?";
+        return attachGenres(jdbcTemplate.query(sql, new FilmRowMapper(), afterId, size));
+    }
+
+    @Override
+    public void streamAll(Consumer<Film> consumer) {
+        // Жанры приходят в том же проходе: строки одного фильма идут подряд благодаря ORDER BY f.id.
+        // Сортировка только по первичному ключу фильмов идёт по индексу и не материализует выборку
+        String sql = "SELECT f.*, m.name AS mpa_rating, g.genre_id, g.name AS genre_name FROM films f " +
+                "LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id " +
+                "LEFT JOIN film_genres fg ON f.id = fg.film_id " +
+                "LEFT JOIN genres g ON fg.genre_id = g.genre_id " +
+                "ORDER BY f.id";
+        FilmStreamHandler handler = new FilmStreamHandler(consumer);
+        jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize), handler);
+        handler.finish();
     }
 
     @Override
     public Optional<Film> getById(long id) {
         String sql = "SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id WHERE f.id = ?";
-        List<Film> films = jdbcTemplate.query(sql, new FilmRowMapper(), id);
+        List<Film> films = attachGenres(jdbcTemplate.query(sql, new FilmRowMapper(), id));
         if (films.isEmpty()) {
             return Optional.empty();
         }
         return Optional.of(films.get(0));
     }
 
+    @Override
+    public List<Film> getByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        // Фильмы с MPA — одним запросом по массиву id, жанры всех фильмов — вторым
+        String sql = "SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id " +
+                "WHERE f.id = ANY(?)";
+        Long[] filmIds = ids.stream().distinct().toArray(Long[]::new);
+        Map<Long, Film> filmsById = new HashMap<>();
+        for (Film film : attachGenres(jdbcTemplate.query(sql, new FilmRowMapper(), (Object) filmIds))) {
+            filmsById.put(film.getId(), film);
+        }
+        return ids.stream()
+                .map(filmsById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public void delete(long id) {
         String checkSql = "SELECT COUNT(*) FROM films WHERE id = ?";
@@ -147,76 +418,182 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public List<Film> getPopular(int size) {
-        String sql = "SELECT " +
-                "f.id, " +
-                "f.name, " +
-                "f.description, " +
-                "f.release_date, " +
-                "f.duration, " +
-                "m.rating_id AS rating_id, " +
-                "m.name AS mpa_rating, " +
-                "COUNT(l.user_id) AS likes_count " +
-                "FROM films f " +
+        // Счётчик лайков хранится в films.likes_count, поэтому топ читается по индексу без агрегации film_likes
+        String sql = "SELECT f.*, m.name AS mpa_rating FROM films f " +
                 "LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id " +
-                "LEFT JOIN film_likes l ON f.id = l.film_id " +
-                "GROUP BY f.id, f.name, f.description, f.release_date, f.duration, m.rating_id, m.name " +
-                "ORDER BY likes_count DESC " +
+                "ORDER BY f.likes_count DESC, f.id " +
                 "LIMIT ?";
-        return jdbcTemplate.query(sql, new FilmRowMapper(), size);
+        return attachGenres(jdbcTemplate.query(sql, new FilmRowMapper(), size));
     }
 
     @Override
-    public void likeFilm(long filmId, long userId) {
-        String checkFilmSql = "SELECT COUNT(*) FROM films WHERE id = ?";
-        Integer filmCount = jdbcTemplate.queryForObject(checkFilmSql, Integer.class, filmId);
-
-        if (filmCount == null || filmCount == 0) {
-            throw new NotFoundException("Фильм с id " + filmId + " не найден");
+    public List<Film> getPopular(int size, Integer genreId, Long mpaId, Integer year) {
+        if (genreId == null && mpaId == null && year == null) {
+            return getPopular(size);
         }
+        // Выборка идёт по индексу (фильтр, likes_count DESC, id) и останавливается на LIMIT.
+        // Столбец фильтра стоит первым и в ORDER BY: при равенстве он не меняет порядок,
+        // но без него H2 не узнаёт в индексе готовую сортировку. Для жанра счётчик берётся из копии
+        // в film_genres; при нескольких фильтрах остальные проверяются на строках, уже идущих по популярности
+        String from;
+        String order;
+        List<String> conditions = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (genreId != null) {
+            from = "film_genres fg JOIN films f ON f.id = fg.film_id ";
+            order = "fg.genre_id, fg.likes_count DESC, fg.film_id";
+            conditions.add("fg.genre_id = ?");
+            args.add(genreId);
+        } else if (year != null) {
+            from = "films f ";
+            order = "f.release_year, f.likes_count DESC, f.id";
+        } else {
+            // Индекс внешнего ключа по rating_id стоит столько же, но не даёт порядка по лайкам
+            from = "films f USE INDEX (idx_films_rating_likes) ";
+            order = "f.rating_id, f.likes_count DESC, f.id";
+        }
+        if (year != null) {
+            conditions.add("f.release_year = ?");
+            args.add(year);
+        }
+        if (mpaId != null) {
+            conditions.add("f.rating_id = ?");
+            args.add(mpaId);
+        }
+        args.add(size);
+        String sql = "SELECT f.*, m.name AS mpa_rating FROM " + from +
+                "LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id " +
+                "WHERE " + String.join(" AND ", conditions) + " " +
+                "ORDER BY " + order + " " +
+                "LIMIT ?";
+        return attachGenres(jdbcTemplate.query(sql, new FilmRowMapper(), args.toArray()));
+    }
 
-        String checkUserSql = "SELECT COUNT(*) FROM users WHERE id = ?";
-        Integer userCount = jdbcTemplate.queryForObject(checkUserSql, Integer.class, userId);
-
-        if (userCount == null || userCount == 0) {
-            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+    @Override
+    @Transactional
+    public void likeFilm(long filmId, long userId) {
+        String alreadyLiked = "Пользователь с id " + userId + " уже поставил лайк фильму с id " + filmId;
+        int inserted;
+        try {
+            inserted = jdbcTemplate.update(INSERT_LIKE_SQL, userId, filmId);
+        } catch (DuplicateKeyException e) {
+            throw new ConditionsNotMetException(alreadyLiked);
+        }
+        if (inserted == 0) {
+            throw likeFailure(filmId, userId, alreadyLiked);
         }
 
-        String checkLikeSql = "SELECT COUNT(*) FROM film_likes WHERE film_id = ? AND user_id = ?";
-        Integer likeCount = jdbcTemplate.queryForObject(checkLikeSql, Integer.class, filmId, userId);
+        String incrementSql = "UPDATE films SET likes_count = likes_count + 1 WHERE id = ?";
+        jdbcTemplate.update(incrementSql, filmId);
+        jdbcTemplate.update(GENRE_COUNTER_SQL, 1, filmId);
+    }
 
-        if (likeCount != null && likeCount > 0) {
-            throw new ConditionsNotMetException("Пользователь с id " + userId + " уже поставил лайк фильму с id " + filmId);
+    @Override
+    @Transactional
+    public void unlikeFilm(long filmId, long userId) {
+        if (jdbcTemplate.update(DELETE_LIKE_SQL, filmId, userId) == 0) {
+            throw likeFailure(filmId, userId,
+                    "Пользователь с id " + userId + " не поставил лайк фильму с id " + filmId);
         }
 
-        String insertLikeSql = "INSERT INTO film_likes (film_id, user_id) VALUES (?, ?)";
-        jdbcTemplate.update(insertLikeSql, filmId, userId);
+        String decrementSql = "UPDATE films SET likes_count = likes_count - 1 WHERE id = ?";
+        jdbcTemplate.update(decrementSql, filmId);
+        jdbcTemplate.update(GENRE_COUNTER_SQL, -1, filmId);
+    }
+
+    private RuntimeException likeFailure(long filmId, long userId, String conditionMessage) {
+        // isLiked сам бросит NotFoundException, если нет фильма или пользователя
+        isLiked(filmId, userId);
+        return new ConditionsNotMetException(conditionMessage);
     }
 
     @Override
-    public void unlikeFilm(long filmId, long userId) {
-        String checkFilmSql = "SELECT COUNT(*) FROM films WHERE id = ?";
-        Integer filmCount = jdbcTemplate.queryForObject(checkFilmSql, Integer.class, filmId);
+    public boolean isLiked(long filmId, long userId) {
+        String sql = "SELECT (SELECT COUNT(*) FROM films WHERE id = ?) AS film_count, " +
+                "(SELECT COUNT(*) FROM users WHERE id = ?) AS user_count, " +
+                "(SELECT COUNT(*) FROM film_likes WHERE film_id = ? AND user_id = ?) AS like_count";
+        return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> {
+            if (rs.getInt("film_count") == 0) {
+                throw new NotFoundException("Фильм с id " + filmId + " не найден");
+            }
+            if (rs.getInt("user_count") == 0) {
+                throw new NotFoundException("Пользователь с id " + userId + " не найден");
+            }
+            return rs.getInt("like_count") > 0;
+        }, filmId, userId, filmId, userId);
+    }
 
-        if (filmCount == null || filmCount == 0) {
-            throw new NotFoundException("Фильм с id " + filmId + " не найден");
-        }
+    @Override
+    public void streamLikes(LikeConsumer consumer) {
+        String sql = "SELECT film_id, user_id FROM film_likes";
+        jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize),
+                (RowCallbackHandler) rs -> consumer.accept(rs.getLong("film_id"), rs.getLong("user_id")));
+    }
 
-        String checkUserSql = "SELECT COUNT(*) FROM users WHERE id = ?";
-        Integer userCount = jdbcTemplate.queryForObject(checkUserSql, Integer.class, userId);
+    @Override
+    public void streamLikesSince(Instant since, TimedLikeConsumer consumer) {
+        String sql = "SELECT film_id, user_id, created_at FROM film_likes WHERE created_at >= ?";
+        jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize),
+                ps -> ps.setObject(1, OffsetDateTime.ofInstant(since, ZoneOffset.UTC)),
+                rs -> {
+                    while (rs.next()) {
+                        consumer.accept(rs.getLong("film_id"), rs.getLong("user_id"),
+                                rs.getObject("created_at", OffsetDateTime.class).toInstant().toEpochMilli());
+                    }
+                    return null;
+                });
+    }
 
-        if (userCount == null || userCount == 0) {
-            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+    @Override
+    @Transactional
+    public void saveLikeChanges(Collection<LikeChange> changes) {
+        List<LikeChange> likes = new ArrayList<>();
+        List<LikeChange> unlikes = new ArrayList<>();
+        for (LikeChange change : changes) {
+            (change.isLiked() ? likes : unlikes).add(change);
         }
 
-        String checkLikeSql = "SELECT COUNT(*) FROM film_likes WHERE film_id = ? AND user_id = ?";
-        Integer likeCount = jdbcTemplate.queryForObject(checkLikeSql, Integer.class, filmId, userId);
+        // Изменения идемпотентны: повторная вставка или удаление отсутствующего лайка ничего не меняют,
+        // а счётчики двигаются только на фактически затронутые строки
+        Map<Long, Integer> deltas = new HashMap<>();
+        int[] inserted = jdbcTemplate.batchUpdate(INSERT_LIKE_SQL, likes.stream()
+                .map(change -> new Object[] {change.getUserId(), change.getFilmId()})
+                .toList());
+        collectDeltas(deltas, likes, inserted, 1);
+        int[] deleted = jdbcTemplate.batchUpdate(DELETE_LIKE_SQL, unlikes.stream()
+                .map(change -> new Object[] {change.getFilmId(), change.getUserId()})
+                .toList());
+        collectDeltas(deltas, unlikes, deleted, -1);
+
+        List<Object[]> counterUpdates = deltas.entrySet().stream()
+                .filter(entry -> entry.getValue() != 0)
+                .map(entry -> new Object[] {entry.getValue(), entry.getKey()})
+                .toList();
+        String counterSql = "UPDATE films SET likes_count = likes_count + ? WHERE id = ?";
+        jdbcTemplate.batchUpdate(counterSql, counterUpdates);
+        jdbcTemplate.batchUpdate(GENRE_COUNTER_SQL, counterUpdates);
+    }
 
-        if (likeCount == null || likeCount == 0) {
-            throw new ConditionsNotMetException("Пользователь с id " + userId + " не поставил лайк фильму с id " + filmId);
+    private static void collectDeltas(Map<Long, Integer> deltas, List<LikeChange> changes, int[] updateCounts,
+                                      int sign) {
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] > 0) {
+                deltas.merge(changes.get(i).getFilmId(), sign, Integer::sum);
+            }
         }
+    }
 
-        String deleteLikeSql = "DELETE FROM film_likes WHERE film_id = ? AND user_id = ?";
-        jdbcTemplate.update(deleteLikeSql, filmId, userId);
+    @Override
+    public int rebuildLikeCounters() {
+        String sql = "UPDATE films f SET likes_count = " +
+                "(SELECT COUNT(*) FROM film_likes l WHERE l.film_id = f.id) " +
+                "WHERE likes_count <> (SELECT COUNT(*) FROM film_likes l WHERE l.film_id = f.id)";
+        int corrected = jdbcTemplate.update(sql);
+        String genreSql = "UPDATE film_genres fg SET likes_count = " +
+                "(SELECT f.likes_count FROM films f WHERE f.id = fg.film_id) " +
+                "WHERE likes_count <> (SELECT f.likes_count FROM films f WHERE f.id = fg.film_id)";
+        jdbcTemplate.update(genreSql);
+        return corrected;
     }
 
 }
\ No newline at end of file
@@ -1,24 +1,74 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
+import ru.yandex.practicum.filmorate.model.LikeChange;
+
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Film add(Film film);
 
+    List<Film> addAll(List<Film> films);
+
+    /**
+     * Перезаписывает фильм и увеличивает его версию. Если у фильма задана версия, запись выполняется
+     * только при совпадении с текущей, иначе бросается PreconditionFailedException.
+     * Новая версия записывается в переданный фильм.
+     */
     Film update(Film film);
 
+    /**
+     * Записывает только переданные поля фильма и увеличивает его версию; версия патча проверяется
+     * так же, как в {@link #update(Film)}.
+     *
+     * @return новая версия фильма
+     */
+    long patch(long id, FilmPatch patch);
+
     Collection<Film> getAll();
 
+    List<Film> getPage(long afterId, int size);
+
+    void streamAll(Consumer<Film> consumer);
+
     Optional<Film> getById(long id);
 
+    /**
+     * Фильмы с заданными id в порядке запроса; отсутствующие id пропускаются.
+     */
+    List<Film> getByIds(Collection<Long> ids);
+
     void delete(long id);
 
     List<Film> getPopular(int count);
 
+    /**
+     * Самые популярные фильмы жанра, MPA рейтинга и года выхода; фильтр со значением null не применяется.
+     */
+    List<Film> getPopular(int count, Integer genreId, Long mpaId, Integer year);
+
     void likeFilm(long filmId, long userId);
 
     void unlikeFilm(long filmId, long userId);
+
+    boolean isLiked(long filmId, long userId);
+
+    /**
+     * Передаёт все лайки потоком, не материализуя их списком.
+     */
+    void streamLikes(LikeConsumer consumer);
+
+    /**
+     * Передаёт потоком лайки, поставленные не раньше {@code since}, вместе со временем постановки.
+     */
+    void streamLikesSince(Instant since, TimedLikeConsumer consumer);
+
+    void saveLikeChanges(Collection<LikeChange> changes);
+
+    int rebuildLikeCounters();
 }
\ No newline at end of file
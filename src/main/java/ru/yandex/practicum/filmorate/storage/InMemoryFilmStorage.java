@@ -4,46 +4,138 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
+import ru.yandex.practicum.filmorate.model.LikeChange;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
 @Qualifier("inMemoryFilmStorage")
 public class InMemoryFilmStorage implements FilmStorage {
-    private final Map<Long, Film> films = new HashMap<>();
+    private final ConcurrentNavigableMap<Long, Film> films = new ConcurrentSkipListMap<>();
+    // Лайки фильма в примитивной хеш-таблице; Film.likes ссылается на то же множество.
+    // Множество не потокобезопасно и читается/меняется только под блокировкой полосы фильма
+    private final Map<Long, LongHashSet> likes = new ConcurrentHashMap<>();
+    // Фильмы, упорядоченные по убыванию лайков: топ читается с головы без сортировки всей коллекции
+    private final NavigableSet<FilmRank> ranking = new ConcurrentSkipListSet<>();
+    private final LockStripes locks = new LockStripes(LockStripes.DEFAULT_STRIPES);
+    private final AtomicLong idSequence = new AtomicLong();
 
     @Override
     public Collection<Film> getAll() {
         return films.values();
     }
 
+    @Override
+    public List<Film> getPage(long afterId, int size) {
+        return films.tailMap(afterId, false).values().stream()
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void streamAll(Consumer<Film> consumer) {
+        films.values().forEach(consumer);
+    }
+
     @Override
     public Film add(Film film) {
         validateFilm(film);
-        film.setId(getNextId());
+        film.setId(idSequence.incrementAndGet());
+        film.setVersion(0L);
+        LongHashSet filmLikes = new LongHashSet(film.getLikes());
+        film.setLikes(filmLikes);
+        film.setLikesCount(filmLikes.size());
+        // Лайки публикуются раньше фильма: найденный фильм всегда их имеет
+        likes.put(film.getId(), filmLikes);
         films.put(film.getId(), film);
+        ranking.add(FilmRank.of(film));
         return film;
     }
 
+    @Override
+    public List<Film> addAll(List<Film> films) {
+        films.forEach(this::add);
+        return films;
+    }
+
     @Override
     public Film update(Film newFilm) {
         if (newFilm.getId() == null) {
             throw new ConditionsNotMetException("ID не должен быть пустым");
         }
-        if (films.containsKey(newFilm.getId())) {
-            Film oldFilm = films.get(newFilm.getId());
-            validateFilm(newFilm);
+        Film oldFilm = getFilmOrThrow(newFilm.getId());
+        validateFilm(newFilm);
 
+        Lock lock = locks.forId(newFilm.getId()).writeLock();
+        lock.lock();
+        try {
+            checkVersion(oldFilm, newFilm.getVersion());
             oldFilm.setName(newFilm.getName());
             oldFilm.setDescription(newFilm.getDescription());
             oldFilm.setReleaseDate(newFilm.getReleaseDate());
             oldFilm.setDuration(newFilm.getDuration());
+            oldFilm.setMpaRating(newFilm.getMpaRating());
+            if (newFilm.getGenres() != null) {
+                oldFilm.setGenres(newFilm.getGenres());
+            }
+            oldFilm.setVersion(oldFilm.getVersion() + 1);
+            newFilm.setVersion(oldFilm.getVersion());
             return oldFilm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long patch(long id, FilmPatch patch) {
+        Film film = getFilmOrThrow(id);
+        Lock lock = locks.forId(id).writeLock();
+        lock.lock();
+        try {
+            checkVersion(film, patch.getVersion());
+            if (patch.getName() != null) {
+                film.setName(patch.getName());
+            }
+            if (patch.getDescription() != null) {
+                film.setDescription(patch.getDescription());
+            }
+            if (patch.getReleaseDate() != null) {
+                film.setReleaseDate(patch.getReleaseDate());
+            }
+            if (patch.getDuration() != null) {
+                film.setDuration(patch.getDuration());
+            }
+            if (patch.getMpaRating() != null) {
+                film.setMpaRating(patch.getMpaRating());
+            }
+            if (patch.getGenres() != null) {
+                film.setGenres(patch.getGenres());
+            }
+            film.setVersion(film.getVersion() + 1);
+            return film.getVersion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void checkVersion(Film film, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(film.getVersion())) {
+            throw new PreconditionFailedException("Фильм с id " + film.getId() + " изменён: ожидалась версия " +
+                    expectedVersion + ", текущая " + film.getVersion());
         }
-        throw new NotFoundException("Фильм с id = " + newFilm.getId() + " не найден");
     }
 
     @Override
@@ -51,6 +143,14 @@ public class InMemoryFilmStorage implements FilmStorage {
         return Optional.ofNullable(films.get(id));
     }
 
+    @Override
+    public List<Film> getByIds(Collection<Long> ids) {
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
 
     private void validateFilm(Film film) {
         if (film.getName() == null || film.getName().isBlank()) {
@@ -78,37 +178,164 @@ public class InMemoryFilmStorage implements FilmStorage {
             throw new ConditionsNotMetException("Количество популярных фильмов должно быть положительным");
         }
 
-        return films.values().stream()
-                .sorted(Comparator.comparingInt((Film film) -> film.getLikes().size()).reversed())
+        // Во время перестановки фильм на мгновение присутствует в рейтинге дважды
+        return ranking.stream()
+                .mapToLong(FilmRank::filmId)
+                .distinct()
                 .limit(count)
+                .mapToObj(films::get)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<Film> getPopular(int count, Integer genreId, Long mpaId, Integer year) {
+        if (genreId == null && mpaId == null && year == null) {
+            return getPopular(count);
+        }
+        if (count <= 0) {
+            throw new ConditionsNotMetException("Количество популярных фильмов должно быть положительным");
+        }
+
+        // Рейтинг общий, поэтому фильтр просматривает его с головы до count подходящих фильмов
+        return ranking.stream()
+                .mapToLong(FilmRank::filmId)
+                .distinct()
+                .mapToObj(films::get)
+                .filter(film -> matches(film, genreId, mpaId, year))
+                .limit(count)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean matches(Film film, Integer genreId, Long mpaId, Integer year) {
+        if (genreId != null && (film.getGenres() == null
+                || film.getGenres().stream().noneMatch(genre -> genreId.equals(genre.getId())))) {
+            return false;
+        }
+        if (mpaId != null && (film.getMpaRating() == null || !mpaId.equals(film.getMpaRating().getId()))) {
+            return false;
+        }
+        return year == null || (film.getReleaseDate() != null && film.getReleaseDate().getYear() == year);
+    }
+
     @Override
     public void likeFilm(long filmId, long userId) {
-        Film film = films.get(filmId);
-        if (film == null) {
-            throw new NotFoundException("Фильм с id = " + filmId + " не найден");
+        Film film = getFilmOrThrow(filmId);
+        Lock lock = locks.forId(filmId).writeLock();
+        lock.lock();
+        try {
+            if (likes.get(filmId).add(userId)) {
+                rerank(film);
+            }
+        } finally {
+            lock.unlock();
         }
-        film.getLikes().add(userId);
     }
 
     @Override
     public void unlikeFilm(long filmId, long userId) {
+        Film film = getFilmOrThrow(filmId);
+        Lock lock = locks.forId(filmId).writeLock();
+        lock.lock();
+        try {
+            if (likes.get(filmId).remove(userId)) {
+                rerank(film);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isLiked(long filmId, long userId) {
+        getFilmOrThrow(filmId);
+        Lock lock = locks.forId(filmId).readLock();
+        lock.lock();
+        try {
+            return likes.get(filmId).contains(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void streamLikes(LikeConsumer consumer) {
+        for (Long filmId : films.keySet()) {
+            long[] users;
+            Lock lock = locks.forId(filmId).readLock();
+            lock.lock();
+            try {
+                users = likes.get(filmId).toLongArray();
+            } finally {
+                lock.unlock();
+            }
+            for (long userId : users) {
+                consumer.accept(filmId, userId);
+            }
+        }
+    }
+
+    @Override
+    public void streamLikesSince(Instant since, TimedLikeConsumer consumer) {
+        // Время лайков в памяти не хранится: тренды такого хранилища строятся только из новых лайков
+    }
+
+    @Override
+    public void saveLikeChanges(Collection<LikeChange> changes) {
+        for (LikeChange change : changes) {
+            if (change.isLiked()) {
+                likeFilm(change.getFilmId(), change.getUserId());
+            } else {
+                unlikeFilm(change.getFilmId(), change.getUserId());
+            }
+        }
+    }
+
+    @Override
+    public int rebuildLikeCounters() {
+        int corrected = 0;
+        for (Film film : films.values()) {
+            Lock lock = locks.forId(film.getId()).writeLock();
+            lock.lock();
+            try {
+                if (film.getLikesCount() != likes.get(film.getId()).size()) {
+                    rerank(film);
+                    corrected++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return corrected;
+    }
+
+    private Film getFilmOrThrow(long filmId) {
         Film film = films.get(filmId);
         if (film == null) {
             throw new NotFoundException("Фильм с id = " + filmId + " не найден");
         }
-        film.getLikes().remove(userId);
+        return film;
     }
 
+    /**
+     * Переносит фильм в рейтинге на актуальное число лайков. Вызывается под блокировкой записи полосы фильма.
+     * Новая позиция добавляется раньше удаления старой, чтобы параллельный читатель топа не потерял фильм.
+     */
+    private void rerank(Film film) {
+        FilmRank oldRank = FilmRank.of(film);
+        film.setLikesCount(likes.get(film.getId()).size());
+        ranking.add(FilmRank.of(film));
+        ranking.remove(oldRank);
+    }
+
+    private record FilmRank(int likes, long filmId) implements Comparable<FilmRank> {
+        static FilmRank of(Film film) {
+            return new FilmRank(film.getLikesCount(), film.getId());
+        }
 
-    private long getNextId() {
-        long currentMaxId = films.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
+        @Override
+        public int compareTo(FilmRank other) {
+            int byLikes = Integer.compare(other.likes, likes);
+            return byLikes != 0 ? byLikes : Long.compare(filmId, other.filmId);
+        }
     }
 }
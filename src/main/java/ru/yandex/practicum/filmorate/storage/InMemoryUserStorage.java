@@ -4,54 +4,131 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
 @Qualifier("inMemoryUserStorage")
 public class InMemoryUserStorage implements UserStorage {
-    private final Map<Long, User> users = new HashMap<>();
-    private final Map<Long, Set<Long>> friends = new HashMap<>();
+    private final ConcurrentNavigableMap<Long, User> users = new ConcurrentSkipListMap<>();
+    // Списки смежности на примитивных массивах: 8 байт на ребро вместо упакованного Long в HashSet.
+    // Сами списки не потокобезопасны и читаются/меняются только под блокировкой полосы владельца
+    private final Map<Long, SortedLongSet> friends = new ConcurrentHashMap<>();
+    private final LockStripes locks = new LockStripes(LockStripes.DEFAULT_STRIPES);
+    private final AtomicLong idSequence = new AtomicLong();
 
     @Override
     public Collection<User> getAll() {
         return users.values();
     }
 
+    @Override
+    public List<User> getPage(long afterId, int size) {
+        return users.tailMap(afterId, false).values().stream()
+                .limit(size)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void streamAll(Consumer<User> consumer) {
+        users.values().forEach(consumer);
+    }
+
     @Override
     public User add(User user) {
         validateUser(user);
 
-        user.setId(getNextId());
+        user.setId(idSequence.incrementAndGet());
+        user.setVersion(0L);
         if (user.getName() == null || user.getName().isBlank()) {
             user.setName(user.getLogin());
         }
 
+        // Список друзей публикуется раньше пользователя: найденный пользователь всегда его имеет
+        friends.put(user.getId(), new SortedLongSet());
         users.put(user.getId(), user);
-        friends.put(user.getId(), new HashSet<>());
         return user;
     }
 
+    @Override
+    public List<User> addAll(List<User> users) {
+        users.forEach(this::add);
+        return users;
+    }
+
     @Override
     public User update(User newUser) {
         if (newUser.getId() == null) {
             throw new ConditionsNotMetException("Id не должен быть пустым");
         }
-        if (users.containsKey(newUser.getId())) {
-            User oldUser = users.get(newUser.getId());
-            validateUser(newUser);
+        User oldUser = users.get(newUser.getId());
+        if (oldUser == null) {
+            throw new NotFoundException("Пользователь с id = " + newUser.getId() + " не найден");
+        }
+        validateUser(newUser);
 
+        Lock lock = locks.forId(newUser.getId()).writeLock();
+        lock.lock();
+        try {
+            checkVersion(oldUser, newUser.getVersion());
             oldUser.setEmail(newUser.getEmail());
             oldUser.setLogin(newUser.getLogin());
             oldUser.setName(newUser.getName() == null
                     || newUser.getName().isBlank() ? newUser.getLogin() : newUser.getName());
             oldUser.setBirthday(newUser.getBirthday());
+            oldUser.setVersion(oldUser.getVersion() + 1);
+            newUser.setVersion(oldUser.getVersion());
             return oldUser;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long patch(long id, UserPatch patch) {
+        User user = users.get(id);
+        if (user == null) {
+            throw new NotFoundException("Пользователь с id = " + id + " не найден");
+        }
+        Lock lock = locks.forId(id).writeLock();
+        lock.lock();
+        try {
+            checkVersion(user, patch.getVersion());
+            if (patch.getEmail() != null) {
+                user.setEmail(patch.getEmail());
+            }
+            if (patch.getLogin() != null) {
+                user.setLogin(patch.getLogin());
+            }
+            if (patch.getName() != null) {
+                user.setName(patch.getName());
+            }
+            if (patch.getBirthday() != null) {
+                user.setBirthday(patch.getBirthday());
+            }
+            user.setVersion(user.getVersion() + 1);
+            return user.getVersion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void checkVersion(User user, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(user.getVersion())) {
+            throw new PreconditionFailedException("Пользователь с id " + user.getId() +
+                    " изменён: ожидалась версия " + expectedVersion + ", текущая " + user.getVersion());
         }
-        throw new NotFoundException("Пользователь с id = " + newUser.getId() + " не найден");
     }
 
     @Override
@@ -68,26 +145,119 @@ public class InMemoryUserStorage implements UserStorage {
     @Override
     public void addFriend(long userId, long friendId) {
         validateFriendship(userId, friendId);
-        friends.get(userId).add(friendId);
+        Lock lock = locks.forId(userId).writeLock();
+        lock.lock();
+        try {
+            friendsOf(userId).add(friendId);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void removeFriend(long userId, long friendId) {
-        if (friends.containsKey(userId)) {
-            friends.get(userId).remove(friendId);
+        SortedLongSet userFriends = friends.get(userId);
+        if (userFriends == null) {
+            return;
+        }
+        Lock lock = locks.forId(userId).writeLock();
+        lock.lock();
+        try {
+            userFriends.remove(friendId);
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public List<User> getFriends(long userId) {
-        if (!friends.containsKey(userId)) {
-            throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+        SortedLongSet userFriends = friendsOf(userId);
+        Lock lock = locks.forId(userId).readLock();
+        lock.lock();
+        try {
+            List<User> result = new ArrayList<>(userFriends.size());
+            userFriends.forEachLong(friendId -> result.add(users.get(friendId)));
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getCommonFriends(long userId, long otherUserId) {
+        SortedLongSet userFriends = friendsOf(userId);
+        SortedLongSet otherUserFriends = friendsOf(otherUserId);
+        // Полосы берутся в порядке номеров; писатели держат не больше одной, поэтому взаимоблокировки нет.
+        // При совпадении полос блокировка чтения просто захватывается повторно
+        boolean userFirst = locks.indexOf(userId) <= locks.indexOf(otherUserId);
+        Lock first = locks.forId(userFirst ? userId : otherUserId).readLock();
+        Lock second = locks.forId(userFirst ? otherUserId : userId).readLock();
+        first.lock();
+        second.lock();
+        try {
+            List<User> common = new ArrayList<>();
+            userFriends.intersect(otherUserFriends, friendId -> common.add(users.get(friendId)));
+            return common;
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getFriendSuggestions(long userId, int limit) {
+        long[] userFriends = copyFriends(userId);
+        long[][] friendsOfFriends = new long[userFriends.length][];
+        int total = 0;
+        for (int i = 0; i < userFriends.length; i++) {
+            friendsOfFriends[i] = copyFriends(userFriends[i]);
+            total += friendsOfFriends[i].length;
+        }
+
+        // Списки друзей сливаются в один массив: после сортировки длина серии одного id — число общих друзей
+        long[] candidates = new long[total];
+        int offset = 0;
+        for (long[] friendFriends : friendsOfFriends) {
+            System.arraycopy(friendFriends, 0, candidates, offset, friendFriends.length);
+            offset += friendFriends.length;
         }
-        return friends.get(userId).stream()
-                .map(friendId -> users.get(friendId))
+        Arrays.sort(candidates);
+        TopK top = new TopK(limit);
+        for (int start = 0; start < candidates.length; ) {
+            long candidate = candidates[start];
+            int end = start + 1;
+            while (end < candidates.length && candidates[end] == candidate) {
+                end++;
+            }
+            if (candidate != userId && Arrays.binarySearch(userFriends, candidate) < 0) {
+                top.offer(candidate, end - start);
+            }
+            start = end;
+        }
+        return top.idList().stream()
+                .map(users::get)
                 .collect(Collectors.toList());
     }
 
+    private long[] copyFriends(long userId) {
+        SortedLongSet userFriends = friendsOf(userId);
+        Lock lock = locks.forId(userId).readLock();
+        lock.lock();
+        try {
+            return userFriends.toLongArray();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SortedLongSet friendsOf(long userId) {
+        SortedLongSet userFriends = friends.get(userId);
+        if (userFriends == null) {
+            throw new NotFoundException("Пользователь с id = " + userId + " не найден");
+        }
+        return userFriends;
+    }
+
     private void validateUser(User user) {
         if (user.getEmail() == null || user.getEmail().isBlank() || !user.getEmail().contains("@")) {
             throw new ConditionsNotMetException("Электронная почта не может быть пустой и должна содержать символ @");
@@ -111,13 +281,4 @@ public class InMemoryUserStorage implements UserStorage {
             throw new ConditionsNotMetException("Нельзя добавить себя в друзья");
         }
     }
-
-    private long getNextId() {
-        long currentMaxId = users.keySet()
-                .stream()
-                .mapToLong(id -> id)
-                .max()
-                .orElse(0);
-        return ++currentMaxId;
-    }
 }
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage;
+
+/**
+ * Получатель пар (фильм, пользователь) при потоковом чтении лайков без упаковки id.
+ */
+@FunctionalInterface
+public interface LikeConsumer {
+    void accept(long filmId, long userId);
+}
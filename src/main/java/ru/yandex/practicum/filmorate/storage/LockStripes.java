@@ -0,0 +1,36 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Фиксированный набор блокировок чтения-записи, распределённых по id сущности.
+ * <p>
+ * Операции над одним фильмом или пользователем сериализуются, над разными — идут параллельно
+ * без общей блокировки и без объекта-блокировки на каждую сущность.
+ */
+final class LockStripes {
+    static final int DEFAULT_STRIPES = 64;
+
+    private final ReadWriteLock[] locks;
+
+    LockStripes(int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Число блокировок должно быть степенью двойки: " + stripes);
+        }
+        locks = new ReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    ReadWriteLock forId(long id) {
+        return locks[indexOf(id)];
+    }
+
+    int indexOf(long id) {
+        // Перемешиваем биты, чтобы последовательные id не попадали в соседние полосы пачками
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (locks.length - 1);
+    }
+}
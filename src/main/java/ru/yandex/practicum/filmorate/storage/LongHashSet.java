@@ -0,0 +1,249 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Множество id на хеш-таблице long с открытой адресацией и линейным пробированием.
+ * <p>
+ * В отличие от {@link SortedLongSet} вставка и удаление не сдвигают массив и стоят O(1)
+ * независимо от размера, поэтому подходит для множеств без ограничения сверху — пользователей,
+ * лайкнувших популярный фильм. Порядок обхода не определён. Удаление сдвигает следующие
+ * элементы цепочки назад, поэтому «надгробий» нет и таблица не деградирует от лайков и их снятия.
+ * Удаление через итератор не поддерживается.
+ */
+public final class LongHashSet extends AbstractSet<Long> {
+    private static final long[] EMPTY = new long[0];
+    private static final int MIN_CAPACITY = 4;
+    // Ноль отмечает свободную ячейку, поэтому сам ноль хранится отдельным флагом
+    private static final long FREE = 0L;
+
+    private long[] slots = EMPTY;
+    private boolean hasZero;
+    private int size;
+    private int modCount;
+
+    public LongHashSet() {
+    }
+
+    public LongHashSet(Collection<Long> source) {
+        if (source != null && !source.isEmpty()) {
+            slots = new long[capacityFor(source.size())];
+            source.forEach(value -> add(value.longValue()));
+        }
+    }
+
+    public boolean add(long value) {
+        if (value == FREE) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            modCount++;
+            return true;
+        }
+        if (slots.length == 0 || (size + 1) * 4L > slots.length * 3L) {
+            rehash(capacityFor(size + 1));
+        }
+        int mask = slots.length - 1;
+        for (int index = slot(value, mask); ; index = (index + 1) & mask) {
+            long current = slots[index];
+            if (current == value) {
+                return false;
+            }
+            if (current == FREE) {
+                slots[index] = value;
+                size++;
+                modCount++;
+                return true;
+            }
+        }
+    }
+
+    public boolean remove(long value) {
+        if (value == FREE) {
+            if (!hasZero) {
+                return false;
+            }
+            hasZero = false;
+            size--;
+            modCount++;
+            return true;
+        }
+        int index = indexOf(value);
+        if (index < 0) {
+            return false;
+        }
+        shiftBack(index);
+        size--;
+        modCount++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        return value == FREE ? hasZero : indexOf(value) >= 0;
+    }
+
+    public void forEachLong(LongConsumer consumer) {
+        if (hasZero) {
+            consumer.accept(FREE);
+        }
+        for (long value : slots) {
+            if (value != FREE) {
+                consumer.accept(value);
+            }
+        }
+    }
+
+    public long[] toLongArray() {
+        long[] result = new long[size];
+        int offset = 0;
+        if (hasZero) {
+            offset++;
+        }
+        for (long value : slots) {
+            if (value != FREE) {
+                result[offset++] = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Уменьшает таблицу до минимальной для текущего числа элементов после массовой загрузки.
+     */
+    public void trimToSize() {
+        int stored = hasZero ? size - 1 : size;
+        int capacity = stored == 0 ? 0 : capacityFor(stored);
+        if (capacity < slots.length) {
+            rehash(capacity);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(Long value) {
+        return add(value.longValue());
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return value instanceof Long longValue && contains(longValue.longValue());
+    }
+
+    @Override
+    public boolean remove(Object value) {
+        return value instanceof Long longValue && remove(longValue.longValue());
+    }
+
+    @Override
+    public void clear() {
+        slots = EMPTY;
+        hasZero = false;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            // -1 — ноль из флага, далее индексы ячеек таблицы
+            private int next = hasZero ? -1 : advance(0);
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < slots.length;
+            }
+
+            @Override
+            public long nextLong() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= slots.length) {
+                    throw new NoSuchElementException();
+                }
+                long value = next < 0 ? FREE : slots[next];
+                next = advance(next + 1);
+                return value;
+            }
+
+            private int advance(int from) {
+                while (from < slots.length && slots[from] == FREE) {
+                    from++;
+                }
+                return from;
+            }
+        };
+    }
+
+    private int indexOf(long value) {
+        if (slots.length == 0) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int index = slot(value, mask); ; index = (index + 1) & mask) {
+            long current = slots[index];
+            if (current == value) {
+                return index;
+            }
+            if (current == FREE) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Закрывает освободившуюся ячейку, перенося в неё элементы цепочки, чья исходная ячейка не дальше неё.
+     */
+    private void shiftBack(int gap) {
+        int mask = slots.length - 1;
+        for (int index = (gap + 1) & mask; slots[index] != FREE; index = (index + 1) & mask) {
+            int home = slot(slots[index], mask);
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                slots[gap] = slots[index];
+                gap = index;
+            }
+        }
+        slots[gap] = FREE;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = slots;
+        slots = capacity == 0 ? EMPTY : new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value != FREE) {
+                int index = slot(value, mask);
+                while (slots[index] != FREE) {
+                    index = (index + 1) & mask;
+                }
+                slots[index] = value;
+            }
+        }
+    }
+
+    /**
+     * Наименьшая степень двойки, при которой {@code elements} занимают не больше трёх четвертей таблицы.
+     */
+    private static int capacityFor(int elements) {
+        int required = (int) Math.min(1L << 30, (elements * 4L + 2) / 3);
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, required - 1)) << 1);
+    }
+
+    private static int slot(long value, int mask) {
+        // Последовательные id перемешиваются, иначе заполняли бы таблицу сплошными отрезками
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,224 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Компактное множество id на отсортированном массиве long.
+ * <p>
+ * Хранит ребро социального графа (друг, лайк) в 8 байтах вместо упакованного Long и узла HashMap.
+ * Проверка вхождения — бинарный поиск, пересечение двух множеств — линейное слияние.
+ * Вставка и удаление сдвигают хвост массива и стоят O(n): это дёшево для списков смежности
+ * в тысячи элементов (друзья, фильмы пользователя), но не для множеств без верхней границы —
+ * пользователи популярного фильма хранятся в {@link LongHashSet}.
+ * Методы с примитивными аргументами не создают объектов; интерфейс {@link java.util.Set}
+ * оставлен для совместимости с моделью и упаковывает значения только при обращении через него.
+ */
+public final class SortedLongSet extends AbstractSet<Long> {
+    private static final long[] EMPTY = new long[0];
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] values = EMPTY;
+    private int size;
+    private int modCount;
+
+    public SortedLongSet() {
+    }
+
+    public SortedLongSet(Collection<Long> source) {
+        if (source != null && !source.isEmpty()) {
+            values = source.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+            size = values.length;
+        }
+    }
+
+    public boolean add(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(MIN_CAPACITY, size + (size >> 1)));
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    public boolean remove(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return values[index];
+    }
+
+    public void forEachLong(LongConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(values[i]);
+        }
+    }
+
+    /**
+     * Передаёт общие элементы двух множеств в порядке возрастания и возвращает их число.
+     */
+    public int intersect(SortedLongSet other, LongConsumer consumer) {
+        long[] left = values;
+        long[] right = other.values;
+        int i = 0;
+        int j = 0;
+        int found = 0;
+        while (i < size && j < other.size) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                consumer.accept(left[i]);
+                found++;
+                i++;
+                j++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Число общих элементов двух множеств. Если меньшее множество намного меньше большего,
+     * его элементы ищутся в большем бинарным поиском вместо линейного слияния.
+     */
+    public int countCommon(SortedLongSet other) {
+        SortedLongSet small = size <= other.size ? this : other;
+        SortedLongSet large = small == this ? other : this;
+        long probes = (long) small.size * (64 - Long.numberOfLeadingZeros(large.size));
+        if (probes >= (long) small.size + large.size) {
+            return intersect(other, value -> {
+            });
+        }
+        int found = 0;
+        int from = 0;
+        for (int i = 0; i < small.size && from < large.size; i++) {
+            int index = Arrays.binarySearch(large.values, from, large.size, small.values[i]);
+            if (index >= 0) {
+                found++;
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Копирует элементы по возрастанию в {@code target} начиная с {@code offset}.
+     */
+    public void copyTo(long[] target, int offset) {
+        System.arraycopy(values, 0, target, offset, size);
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Отдаёт неиспользуемый запас массива после массовой загрузки.
+     */
+    public void trimToSize() {
+        if (values.length != size) {
+            values = size == 0 ? EMPTY : Arrays.copyOf(values, size);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean add(Long value) {
+        return add(value.longValue());
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return value instanceof Long longValue && contains(longValue.longValue());
+    }
+
+    @Override
+    public boolean remove(Object value) {
+        return value instanceof Long longValue && remove(longValue.longValue());
+    }
+
+    @Override
+    public void clear() {
+        values = EMPTY;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int next;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public long nextLong() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = next++;
+                return values[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                removeAt(last);
+                next = last;
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        modCount++;
+    }
+}
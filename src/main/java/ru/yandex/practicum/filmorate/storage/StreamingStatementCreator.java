@@ -0,0 +1,46 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Создаёт forward-only выражение только для чтения с ограниченным fetch size.
+ * <p>
+ * Встроенная H2 отдаёт строки по мере обхода только при {@code LAZY_QUERY_EXECUTION=1}
+ * (задаётся свойством соединения пула), иначе весь результат собирается в памяти до первой строки.
+ * Даже в ленивом режиме материализуется выборка, чей ORDER BY не совпадает с порядком индекса,
+ * поэтому потоковые запросы сортируются по первичному ключу ведущей таблицы. Fetch size встроенная
+ * база не использует: он определяет размер порции только при подключении к серверу H2 по сети.
+ */
+public class StreamingStatementCreator implements PreparedStatementCreator, SqlProvider {
+    static final int DEFAULT_FETCH_SIZE = 500;
+
+    private final String sql;
+    private final int fetchSize;
+
+    public StreamingStatementCreator(String sql) {
+        this(sql, DEFAULT_FETCH_SIZE);
+    }
+
+    public StreamingStatementCreator(String sql, int fetchSize) {
+        this.sql = sql;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public PreparedStatement createPreparedStatement(Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchSize(fetchSize);
+        return ps;
+    }
+
+    @Override
+    public String getSql() {
+        return sql;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.yandex.practicum.filmorate.storage;
+
+/**
+ * Получатель лайков вместе со временем их постановки в миллисекундах эпохи.
+ */
+@FunctionalInterface
+public interface TimedLikeConsumer {
+    void accept(long filmId, long userId, long likedAtMillis);
+}
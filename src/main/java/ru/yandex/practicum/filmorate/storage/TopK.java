@@ -0,0 +1,63 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ограниченный отбор K лучших id по убыванию оценки, при равенстве — по возрастанию id.
+ * <p>
+ * Держит упорядоченные параллельные массивы: кандидат хуже последнего отбрасывается одним сравнением,
+ * остальные вставляются сдвигом, что для K в десятки дешевле кучи с упакованными элементами.
+ */
+public final class TopK {
+    private final long[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Размер отбора должен быть положительным: " + capacity);
+        }
+        ids = new long[capacity];
+        scores = new double[capacity];
+    }
+
+    public void offer(long id, double score) {
+        int position;
+        if (size < ids.length) {
+            position = size++;
+        } else if (isBetter(id, score, size - 1)) {
+            position = size - 1;
+        } else {
+            return;
+        }
+        while (position > 0 && isBetter(id, score, position - 1)) {
+            ids[position] = ids[position - 1];
+            scores[position] = scores[position - 1];
+            position--;
+        }
+        ids[position] = id;
+        scores[position] = score;
+    }
+
+    public long[] ids() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    public double[] scores() {
+        return Arrays.copyOf(scores, size);
+    }
+
+    public List<Long> idList() {
+        List<Long> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(ids[i]);
+        }
+        return result;
+    }
+
+    private boolean isBetter(long id, double score, int index) {
+        return score > scores[index] || (score == scores[index] && id < ids[index]);
+    }
+}
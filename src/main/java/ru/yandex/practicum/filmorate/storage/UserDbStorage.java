@@ -1,22 +1,32 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Repository
 @Component
@@ -24,9 +34,16 @@ import java.util.Optional;
 public class UserDbStorage implements UserStorage {
 
     private final JdbcTemplate jdbcTemplate;
+    private final int scanFetchSize;
 
     public UserDbStorage(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, new DataAccessProperties());
+    }
+
+    @Autowired
+    public UserDbStorage(JdbcTemplate jdbcTemplate, DataAccessProperties dataAccess) {
         this.jdbcTemplate = jdbcTemplate;
+        this.scanFetchSize = dataAccess.getScanFetchSize();
     }
 
     @Override
@@ -36,33 +53,128 @@ public class UserDbStorage implements UserStorage {
 
         jdbcTemplate.update(connection -> {
             PreparedStatement ps = connection.prepareStatement(sql, new String[] {"id"});
-            ps.setString(1, user.getEmail());
-            ps.setString(2, user.getLogin());
-            ps.setString(3, user.getName());
-            ps.setDate(4, java.sql.Date.valueOf(user.getBirthday()));
+            setUserParameters(ps, user);
             return ps;
         }, keyHolder);
 
         user.setId(keyHolder.getKey().longValue());
+        user.setVersion(0L);
         return user;
     }
 
     @Override
-    public User update(User user) {
-        String sql = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? WHERE id = ?";
-        int rowsUpdated = jdbcTemplate.update(sql, user.getEmail(), user.getLogin(), user.getName(), user.getBirthday(), user.getId());
+    @Transactional
+    public List<User> addAll(List<User> users) {
+        if (users.isEmpty()) {
+            return users;
+        }
+        String sql = "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(sql, new String[] {"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        setUserParameters(ps, users.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return users.size();
+                    }
+                }, keyHolder);
 
-        if (rowsUpdated == 0) {
-            throw new NotFoundException("Пользователь с id " + user.getId() + " не найден");
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < users.size(); i++) {
+            users.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+            users.get(i).setVersion(0L);
         }
+        return users;
+    }
+
+    private static void setUserParameters(PreparedStatement ps, User user) throws SQLException {
+        ps.setString(1, user.getEmail());
+        ps.setString(2, user.getLogin());
+        ps.setString(3, user.getName());
+        ps.setDate(4, java.sql.Date.valueOf(user.getBirthday()));
+    }
 
+    @Override
+    public User update(User user) {
+        List<String> columns = List.of("email = ?", "login = ?", "name = ?", "birthday = ?");
+        List<Object> args = Arrays.asList(user.getEmail(), user.getLogin(), user.getName(), user.getBirthday());
+        user.setVersion(updateVersioned(user.getId(), user.getVersion(), columns, args));
         return user;
     }
 
+    @Override
+    public long patch(long id, UserPatch patch) {
+        List<String> columns = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (patch.getEmail() != null) {
+            columns.add("email = ?");
+            args.add(patch.getEmail());
+        }
+        if (patch.getLogin() != null) {
+            columns.add("login = ?");
+            args.add(patch.getLogin());
+        }
+        if (patch.getName() != null) {
+            columns.add("name = ?");
+            args.add(patch.getName());
+        }
+        if (patch.getBirthday() != null) {
+            columns.add("birthday = ?");
+            args.add(patch.getBirthday());
+        }
+        return updateVersioned(id, patch.getVersion(), columns, args);
+    }
+
+    /**
+     * Обновляет столбцы пользователя и его версию одним запросом, см. FilmDbStorage.
+     */
+    private long updateVersioned(long id, Long expectedVersion, List<String> columns, List<Object> args) {
+        List<String> assignments = new ArrayList<>(columns);
+        assignments.add("version = version + 1");
+        List<Object> allArgs = new ArrayList<>(args);
+        allArgs.add(id);
+        String condition = "id = ?";
+        if (expectedVersion != null) {
+            condition += " AND version = ?";
+            allArgs.add(expectedVersion);
+        }
+        String sql = "SELECT version FROM FINAL TABLE (UPDATE users SET " + String.join(", ", assignments) +
+                " WHERE " + condition + ")";
+        List<Long> versions = jdbcTemplate.queryForList(sql, Long.class, allArgs.toArray());
+        if (!versions.isEmpty()) {
+            return versions.get(0);
+        }
+
+        List<Long> current = jdbcTemplate.queryForList("SELECT version FROM users WHERE id = ?", Long.class, id);
+        if (current.isEmpty()) {
+            throw new NotFoundException("Пользователь с id " + id + " не найден");
+        }
+        throw new PreconditionFailedException("Пользователь с id " + id + " изменён: ожидалась версия " +
+                expectedVersion + ", текущая " + current.get(0));
+    }
+
     @Override
     public Collection<User> getAll() {
         String sql = "SELECT * FROM users";
-        return jdbcTemplate.query(sql, new UserRowMapper());
+        return jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize), new UserRowMapper());
+    }
+
+    @Override
+    public List<User> getPage(long afterId, int size) {
+        String sql = "SELECT * FROM users WHERE id > ? ORDER BY id LIMIT ?";
+        return jdbcTemplate.query(sql, new UserRowMapper(), afterId, size);
+    }
+
+    @Override
+    public void streamAll(Consumer<User> consumer) {
+        String sql = "SELECT * FROM users ORDER BY id";
+        UserRowMapper userRowMapper = new UserRowMapper();
+        jdbcTemplate.query(new StreamingStatementCreator(sql, scanFetchSize),
+                (RowCallbackHandler) rs -> consumer.accept(userRowMapper.mapRow(rs, rs.getRow())));
     }
 
     @Override
@@ -105,6 +217,30 @@ public class UserDbStorage implements UserStorage {
         return jdbcTemplate.query(sql, new UserRowMapper(), userId);
     }
 
+    @Override
+    public List<User> getCommonFriends(long userId, long otherUserId) {
+        // Пересечение по первичному ключу friends (user_id, friend_id) одним запросом
+        String sql = "SELECT u.* FROM friends f1 " +
+                "JOIN friends f2 ON f2.friend_id = f1.friend_id AND f2.user_id = ? " +
+                "JOIN users u ON u.id = f1.friend_id " +
+                "WHERE f1.user_id = ? ORDER BY u.id";
+        return jdbcTemplate.query(sql, new UserRowMapper(), otherUserId, userId);
+    }
+
+    @Override
+    public List<User> getFriendSuggestions(long userId, int limit) {
+        // Один проход: друзья друзей агрегируются по первичному ключу friends, уже добавленные отсекаются
+        // антиджойном, а пользователи подтягиваются только для отобранных limit кандидатов
+        String sql = "SELECT u.* FROM (" +
+                "SELECT f2.friend_id AS id, COUNT(*) AS mutual FROM friends f1 " +
+                "JOIN friends f2 ON f2.user_id = f1.friend_id " +
+                "WHERE f1.user_id = ? AND f2.friend_id <> ? " +
+                "AND NOT EXISTS (SELECT 1 FROM friends f3 WHERE f3.user_id = ? AND f3.friend_id = f2.friend_id) " +
+                "GROUP BY f2.friend_id ORDER BY mutual DESC, f2.friend_id LIMIT ?) s " +
+                "JOIN users u ON u.id = s.id ORDER BY s.mutual DESC, u.id";
+        return jdbcTemplate.query(sql, new UserRowMapper(), userId, userId, userId, limit);
+    }
+
     public List<User> getFriendRequests(long userId) {
         String sql = "SELECT u.* FROM users u JOIN friends f ON u.id = f.user_id WHERE f.friend_id = ?";
         return jdbcTemplate.query(sql, new UserRowMapper(), userId);
@@ -119,7 +255,8 @@ public class UserDbStorage implements UserStorage {
                     rs.getString("login"),
                     rs.getString("name"),
                     rs.getDate("birthday").toLocalDate(),
-                    new HashSet<>()  // Пустой Set для friends
+                    new HashSet<>(),  // Пустой Set для friends
+                    rs.getLong("version")
             );
         }
     }
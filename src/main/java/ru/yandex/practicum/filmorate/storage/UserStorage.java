@@ -1,18 +1,39 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserStorage {
     User add(User user);
 
+    List<User> addAll(List<User> users);
+
+    /**
+     * Перезаписывает пользователя и увеличивает его версию. Если у пользователя задана версия, запись
+     * выполняется только при совпадении с текущей, иначе бросается PreconditionFailedException.
+     * Новая версия записывается в переданного пользователя.
+     */
     User update(User user);
 
+    /**
+     * Записывает только переданные поля пользователя и увеличивает его версию; версия патча
+     * проверяется так же, как в {@link #update(User)}.
+     *
+     * @return новая версия пользователя
+     */
+    long patch(long id, UserPatch patch);
+
     Collection<User> getAll();
 
+    List<User> getPage(long afterId, int size);
+
+    void streamAll(Consumer<User> consumer);
+
     Optional<User> getById(long id);
 
     void delete(long id);
@@ -22,4 +43,11 @@ public interface UserStorage {
     void removeFriend(long userId, long friendId);
 
     List<User> getFriends(long userId);
+
+    List<User> getCommonFriends(long userId, long otherUserId);
+
+    /**
+     * Друзья друзей пользователя, которые ещё не его друзья, по убыванию числа общих друзей.
+     */
+    List<User> getFriendSuggestions(long userId, int limit);
 }
@@ -1,14 +0,0 @@
--- Заполнение таблицы mpa_ratings
-INSERT INTO mpa_ratings (name) VALUES ('G');
-INSERT INTO mpa_ratings (name) VALUES ('PG');
-INSERT INTO mpa_ratings (name) VALUES ('PG-13');
-INSERT INTO mpa_ratings (name) VALUES ('R');
-INSERT INTO mpa_ratings (name) VALUES ('NC-17');
-
--- Заполнение таблицы genres
-INSERT INTO genres (name) VALUES ('Комедия');
-INSERT INTO genres (name) VALUES ('Драма');
-INSERT INTO genres (name) VALUES ('Мультфильм');
-INSERT INTO genres (name) VALUES ('Триллер');
-INSERT INTO genres (name) VALUES ('Документальный');
-INSERT INTO genres (name) VALUES ('Боевик');
@@ -1,3 +1,5 @@
+-- Исходная схема. Все выражения идемпотентны: базы, созданные ранее через schema.sql,
+-- принимаются с baseline-версии 0 и проходят миграции без ошибок
 CREATE TABLE IF NOT EXISTS users (
     id BIGINT AUTO_INCREMENT PRIMARY KEY,
     email VARCHAR(255) NOT NULL,
@@ -18,6 +20,7 @@ CREATE TABLE IF NOT EXISTS films (
     release_date DATE NOT NULL,
     duration INT NOT NULL,
     rating_id BIGINT,
+    likes_count INT DEFAULT 0 NOT NULL,
     CONSTRAINT fk_rating FOREIGN KEY (rating_id) REFERENCES mpa_ratings (rating_id)
 );
 
@@ -0,0 +1,4 @@
+-- Материализованный счётчик лайков и индекс для выборки популярных фильмов
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count INT DEFAULT 0 NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_films_likes_count ON films (likes_count DESC, id);
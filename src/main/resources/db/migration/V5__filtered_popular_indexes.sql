@@ -0,0 +1,16 @@
+-- Индексы для топа популярных фильмов с фильтром по жанру, году выхода и MPA рейтингу.
+-- Каждый индекс начинается со столбца фильтра и продолжается счётчиком лайков, поэтому
+-- отфильтрованный топ читается по индексу с остановкой на LIMIT, как и общий
+
+-- Год выхода вычисляется из даты релиза и не требует поддержки в коде записи
+ALTER TABLE films ADD COLUMN IF NOT EXISTS release_year INT GENERATED ALWAYS AS (EXTRACT(YEAR FROM release_date));
+
+-- Копия films.likes_count в связях фильм-жанр: меняется в тех же транзакциях, что и счётчик фильма
+ALTER TABLE film_genres ADD COLUMN IF NOT EXISTS likes_count INT DEFAULT 0 NOT NULL;
+
+UPDATE film_genres fg SET likes_count = (SELECT f.likes_count FROM films f WHERE f.id = fg.film_id);
+
+CREATE INDEX IF NOT EXISTS idx_film_genres_genre_likes ON film_genres (genre_id, likes_count DESC, film_id);
+CREATE INDEX IF NOT EXISTS idx_films_year_likes ON films (release_year, likes_count DESC, id);
+CREATE INDEX IF NOT EXISTS idx_films_rating_likes ON films (rating_id, likes_count DESC, id);
+
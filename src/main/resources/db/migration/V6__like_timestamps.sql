@@ -0,0 +1,8 @@
+-- Время лайка для трендовых фильмов. Время лайков, поставленных до миграции, неизвестно:
+-- они получают давнюю отметку и не попадают в тренды, новые лайки — текущее время
+ALTER TABLE film_likes ADD COLUMN IF NOT EXISTS created_at TIMESTAMP WITH TIME ZONE
+    DEFAULT TIMESTAMP WITH TIME ZONE '1970-01-01 00:00:00+00' NOT NULL;
+ALTER TABLE film_likes ALTER COLUMN created_at SET DEFAULT CURRENT_TIMESTAMP;
+
+-- Загрузка лайков окна трендов при старте читает только свежие строки
+CREATE INDEX IF NOT EXISTS idx_film_likes_created_at ON film_likes (created_at);
@@ -0,0 +1,4 @@
+-- Версия строки для оптимистичной блокировки: каждое изменение фильма или пользователя увеличивает её на 1,
+-- условное обновление проверяет версию в том же UPDATE
+ALTER TABLE films ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE users ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
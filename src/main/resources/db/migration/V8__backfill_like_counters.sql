@@ -0,0 +1,5 @@
+-- Разовый пересчёт счётчиков лайков: V2 добавила films.likes_count со значением 0 без пересчёта,
+-- а V5 скопировала эти нули в film_genres. В базе, где лайки были до V2, топ популярных был неверен
+UPDATE films f SET likes_count = (SELECT COUNT(*) FROM film_likes l WHERE l.film_id = f.id);
+
+UPDATE film_genres fg SET likes_count = (SELECT f.likes_count FROM films f WHERE f.id = fg.film_id);
@@ -0,0 +1,79 @@
+package ru.yandex.practicum.filmorate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.storage.BulkheadDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BulkheadDataSourceTest {
+    private JdbcDataSource target;
+
+    @BeforeEach
+    void setUp() {
+        target = new JdbcDataSource();
+        target.setURL("jdbc:h2:mem:bulkhead;DB_CLOSE_DELAY=-1");
+        target.setUser("sa");
+    }
+
+    @Test
+    void testConnectionOverLimitTimesOutAndPermitReturnsOnClose() throws Exception {
+        BulkheadDataSource bulkhead = new BulkheadDataSource(target, 2, Duration.ofMillis(100));
+
+        Connection first = bulkhead.getConnection();
+        Connection second = bulkhead.getConnection();
+        assertEquals(0, bulkhead.getAvailablePermits());
+        assertThrows(SQLTransientConnectionException.class, bulkhead::getConnection);
+
+        first.close();
+        first.close();
+        assertEquals(1, bulkhead.getAvailablePermits(), "Повторное закрытие не освобождает второе место");
+        try (Connection third = bulkhead.getConnection()) {
+            assertTrue(third.isValid(1));
+        }
+        second.close();
+        assertEquals(2, bulkhead.getAvailablePermits());
+    }
+
+    @Test
+    void testVirtualThreadsNeverExceedConnectionLimit() throws Exception {
+        int limit = 4;
+        BulkheadDataSource bulkhead = new BulkheadDataSource(target, limit, Duration.ofSeconds(30));
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 1_000; i++) {
+                futures.add(executor.submit(() -> {
+                    try (Connection connection = bulkhead.getConnection()) {
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        connection.createStatement().execute("SELECT 1");
+                        active.decrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        }
+
+        assertTrue(maxActive.get() <= limit, "Одновременно открыто соединений: " + maxActive.get());
+        assertEquals(limit, bulkhead.getAvailablePermits());
+    }
+}
@@ -0,0 +1,84 @@
+package ru.yandex.practicum.filmorate;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import ru.yandex.practicum.filmorate.storage.DataAccessProperties;
+import ru.yandex.practicum.filmorate.storage.DataAccessSelfCheck;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DataAccessSelfCheckTest {
+    private HikariDataSource pool;
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testTunedProfileIsReportedWithoutWarnings() {
+        pool = pool("tuned", 4, 4);
+        pool.addDataSourceProperty("QUERY_CACHE_SIZE", "128");
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("filmorate.datasource.bulkhead.enabled", "true")
+                .withProperty("filmorate.datasource.bulkhead.max-concurrent", "4");
+
+        DataAccessSelfCheck.Report report = check(pool, new JdbcTemplate(pool), environment);
+
+        assertEquals("tuned", report.poolName());
+        assertEquals(4, report.maximumPoolSize());
+        assertEquals(128, report.queryCacheSize());
+        assertEquals(500, report.scanFetchSize());
+        assertEquals(4, report.bulkheadMaxConcurrent());
+        assertTrue(report.warnings().isEmpty(), report.warnings().toString());
+    }
+
+    @Test
+    void testMisconfigurationsAreReported() {
+        pool = pool("untuned", 1, 2);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("filmorate.datasource.bulkhead.enabled", "true")
+                .withProperty("filmorate.datasource.bulkhead.max-concurrent", "20");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(pool);
+        jdbcTemplate.setFetchSize(100);
+
+        DataAccessSelfCheck.Report report = check(pool, jdbcTemplate, environment);
+
+        // Переменный пул, ограничитель шире пула, кэш запросов H2 по умолчанию и перекрытый fetch size
+        assertEquals(8, report.queryCacheSize());
+        assertEquals(4, report.warnings().size(), report.warnings().toString());
+
+        JdbcDataSource plain = new JdbcDataSource();
+        plain.setURL("jdbc:h2:mem:plain;DB_CLOSE_DELAY=-1");
+        plain.setUser("sa");
+        DataAccessSelfCheck.Report plainReport = check(plain, new JdbcTemplate(plain), new MockEnvironment());
+        assertNull(plainReport.maximumPoolSize());
+        assertNull(plainReport.bulkheadMaxConcurrent());
+        assertTrue(plainReport.warnings().get(0).contains("без пула"));
+    }
+
+    private static HikariDataSource pool(String name, int minimumIdle, int maximumPoolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(name);
+        dataSource.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setMinimumIdle(minimumIdle);
+        dataSource.setMaximumPoolSize(maximumPoolSize);
+        return dataSource;
+    }
+
+    private static DataAccessSelfCheck.Report check(DataSource dataSource, JdbcTemplate jdbcTemplate,
+                                                    MockEnvironment environment) {
+        return new DataAccessSelfCheck(dataSource, jdbcTemplate, new DataAccessProperties(), environment).check();
+    }
+}
@@ -1,18 +1,70 @@
 package ru.yandex.practicum.filmorate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import ru.yandex.practicum.filmorate.controller.FilmController;
+import ru.yandex.practicum.filmorate.controller.GlobalExceptionHandler;
+import ru.yandex.practicum.filmorate.controller.RecommendationController;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportResult;
 import ru.yandex.practicum.filmorate.model.MpaRating;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
+import ru.yandex.practicum.filmorate.service.FilmJsonCache;
+import ru.yandex.practicum.filmorate.service.FilmJsonCacheProperties;
+import ru.yandex.practicum.filmorate.service.FilmSearchIndex;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.LikeWriteBehindBuffer;
+import ru.yandex.practicum.filmorate.service.LikeWriteBehindProperties;
+import ru.yandex.practicum.filmorate.service.PopularFilmsCache;
+import ru.yandex.practicum.filmorate.service.PopularFilmsCacheProperties;
+import ru.yandex.practicum.filmorate.service.RecommendationProperties;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.service.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.service.TrendingProperties;
+import ru.yandex.practicum.filmorate.service.TrendingService;
 import ru.yandex.practicum.filmorate.storage.*;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class FilmControllerTest {
     private FilmController filmController;
@@ -24,14 +76,45 @@ public class FilmControllerTest {
 
     private MpaRatingDbStorage mpaStorage;
 
+    private ReferenceDataCache referenceData;
+
+    private ObjectMapper objectMapper;
+
+    private PopularFilmsCache popularCache;
+
+    private FilmJsonCache filmJsonCache;
+
+    private RecommendationService recommendations;
+
+    private FilmSearchIndex searchIndex;
+
+    private MeterRegistry meterRegistry;
+
+    private TrendingService trending;
+
+    private TestClock clock;
+
     @BeforeEach
     void setUp() {
         filmStorage = new InMemoryFilmStorage();
         userStorage = new InMemoryUserStorage();
         genreStorage = new InMemoryGenreDbStorage();
         mpaStorage = new InMemoryMpaRatingDbStorage();
-        filmService = new FilmService(filmStorage, userStorage, genreStorage, mpaStorage);
-        filmController = new FilmController(filmService);
+        referenceData = new ReferenceDataCache(genreStorage, mpaStorage);
+        referenceData.refresh();
+        meterRegistry = new SimpleMeterRegistry();
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        LikeWriteBehindBuffer likeBuffer = new LikeWriteBehindBuffer(filmStorage, new LikeWriteBehindProperties());
+        popularCache = new PopularFilmsCache(filmStorage, likeBuffer, new PopularFilmsCacheProperties(), meterRegistry);
+        filmJsonCache = new FilmJsonCache(filmStorage, objectMapper, referenceData, new FilmJsonCacheProperties(),
+                meterRegistry);
+        recommendations = new RecommendationService(filmStorage, new RecommendationProperties());
+        searchIndex = new FilmSearchIndex(filmStorage);
+        clock = new TestClock(Instant.parse("2024-03-01T00:00:00Z"));
+        trending = new TrendingService(filmStorage, new TrendingProperties(), clock);
+        filmService = new FilmService(filmStorage, userStorage, referenceData, likeBuffer, popularCache, filmJsonCache,
+                recommendations, searchIndex, trending, 500);
+        filmController = new FilmController(filmService, objectMapper);
     }
 
     @Test
@@ -108,4 +191,647 @@ public class FilmControllerTest {
         Film createdFilm = filmService.add(film);
         assertEquals(1L, createdFilm.getMpaRating().getId());
     }
+
+    @Test
+    void testFindPageUsesIdCursor() {
+        for (int i = 1; i <= 5; i++) {
+            filmService.add(validFilm("Film " + i));
+        }
+
+        ResponseEntity<List<Film>> firstPage = filmController.findPage(0, 2);
+        assertEquals(List.of(1L, 2L), firstPage.getBody().stream().map(Film::getId).toList());
+        assertEquals("2", firstPage.getHeaders().getFirst(FilmController.NEXT_CURSOR_HEADER));
+
+        ResponseEntity<List<Film>> lastPage = filmController.findPage(4, 2);
+        assertEquals(List.of(5L), lastPage.getBody().stream().map(Film::getId).toList());
+        assertNull(lastPage.getHeaders().getFirst(FilmController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void testFindAllStreamsJsonArray() throws Exception {
+        filmService.add(validFilm("First"));
+        filmService.add(validFilm("Second"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filmController.findAll().getBody().writeTo(out);
+
+        Film[] films = objectMapper.readValue(out.toByteArray(), Film[].class);
+        assertEquals(2, films.length);
+        assertEquals("First", films[0].getName());
+        assertEquals("Second", films[1].getName());
+    }
+
+    @Test
+    void testMostPopularFollowsLikes() {
+        Film first = filmService.add(validFilm("First"));
+        Film second = filmService.add(validFilm("Second"));
+        Film third = filmService.add(validFilm("Third"));
+
+        filmService.addLike(third.getId(), 1L);
+        filmService.addLike(third.getId(), 2L);
+        filmService.addLike(first.getId(), 1L);
+        assertEquals(List.of(third.getId(), first.getId(), second.getId()),
+                filmService.getMostPopular(3).stream().map(Film::getId).toList());
+
+        filmService.removeLike(third.getId(), 1L);
+        filmService.removeLike(third.getId(), 2L);
+        assertEquals(List.of(first.getId(), second.getId()),
+                filmService.getMostPopular(2).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testWriteBehindLikesAreCoalescedAndVisibleBeforeFlush() {
+        LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+        properties.setEnabled(true);
+        LikeWriteBehindBuffer likeBuffer = new LikeWriteBehindBuffer(filmStorage, properties);
+        FilmService bufferedService = bufferedService(likeBuffer);
+        Film first = bufferedService.add(validFilm("First"));
+        Film second = bufferedService.add(validFilm("Second"));
+
+        bufferedService.addLike(second.getId(), 1L);
+        bufferedService.addLike(second.getId(), 2L);
+        bufferedService.addLike(first.getId(), 3L);
+        bufferedService.removeLike(first.getId(), 3L);
+        assertThrows(ConditionsNotMetException.class, () -> bufferedService.addLike(second.getId(), 1L));
+
+        assertEquals(Map.of(second.getId(), 2), likeBuffer.pendingDeltas());
+        assertEquals(0, filmStorage.getById(second.getId()).orElseThrow().getLikes().size());
+        assertEquals(second.getId(), bufferedService.getMostPopular(1).get(0).getId());
+
+        likeBuffer.flush();
+        assertEquals(Map.of(), likeBuffer.pendingDeltas());
+        assertEquals(2, filmStorage.getById(second.getId()).orElseThrow().getLikes().size());
+        assertEquals(0, filmStorage.getById(first.getId()).orElseThrow().getLikes().size());
+        assertEquals(second.getId(), bufferedService.getMostPopular(1).get(0).getId());
+    }
+
+    @Test
+    void testWriteBehindLikesLiftFilmFromOutsideOfPopularWindow() {
+        LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+        properties.setEnabled(true);
+        LikeWriteBehindBuffer likeBuffer = new LikeWriteBehindBuffer(filmStorage, properties);
+        FilmService bufferedService = bufferedService(likeBuffer);
+        Film leader = bufferedService.add(validFilm("Leader"));
+        Film runnerUp = bufferedService.add(validFilm("Runner-up"));
+        Film release = bufferedService.add(validFilm("Release"));
+        filmStorage.likeFilm(leader.getId(), 1L);
+        filmStorage.likeFilm(leader.getId(), 2L);
+        filmStorage.likeFilm(runnerUp.getId(), 1L);
+
+        // Новинка набирает лайки только в буфере и сразу за пределами окна из двух фильмов
+        for (long userId = 1; userId <= 3; userId++) {
+            bufferedService.addLike(release.getId(), userId);
+        }
+
+        assertEquals(List.of(release.getId(), leader.getId()),
+                bufferedService.getMostPopular(2).stream().map(Film::getId).toList());
+        assertEquals(List.of(release.getId()),
+                bufferedService.getMostPopular(1).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testWriteBehindLikesAreOverlaidOnCachedPopularList() {
+        LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+        properties.setEnabled(true);
+        FilmService bufferedService = bufferedService(new LikeWriteBehindBuffer(filmStorage, properties));
+        List<Film> listed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Film film = bufferedService.add(validFilm("Film " + i));
+            filmStorage.likeFilm(film.getId(), 1L);
+            filmStorage.likeFilm(film.getId(), 2L);
+            listed.add(film);
+        }
+        Film outsider = bufferedService.add(validFilm("Outsider"));
+        assertEquals(List.of(listed.get(0).getId(), listed.get(1).getId(), listed.get(2).getId()),
+                bufferedService.getMostPopular(3).stream().map(Film::getId).toList());
+
+        // Лайк фильма из списка уже учтён в закэшированном списке и не должен добавиться ещё раз
+        bufferedService.addLike(listed.get(5).getId(), 3L);
+        // Фильм за границей корзины поднимается несброшенными лайками и догружается по id
+        for (long userId = 1; userId <= 4; userId++) {
+            bufferedService.addLike(outsider.getId(), userId);
+        }
+
+        assertEquals(List.of(outsider.getId(), listed.get(5).getId(), listed.get(0).getId()),
+                bufferedService.getMostPopular(3).stream().map(Film::getId).toList());
+        assertEquals(1.0, popularRequests("miss"));
+        assertEquals(1.0, popularRequests("hit"));
+    }
+
+    @Test
+    void testPopularFilmsAreCachedPerBucketAndInvalidatedByLikes() {
+        Film first = filmService.add(validFilm("First"));
+        Film second = filmService.add(validFilm("Second"));
+        for (int i = 0; i < 30; i++) {
+            filmService.add(validFilm("Film " + i));
+        }
+        filmService.addLike(second.getId(), 1L);
+
+        assertEquals(second.getId(), filmService.getMostPopular(3).get(0).getId());
+        assertEquals(3, filmService.getMostPopular(3).size());
+        // Размер 7 попадает в ту же корзину на 10 фильмов, 20 — в следующую
+        assertEquals(7, filmService.getMostPopular(7).size());
+        assertEquals(20, filmService.getMostPopular(20).size());
+        assertEquals(2.0, popularRequests("miss"));
+        assertEquals(2.0, popularRequests("hit"));
+
+        // Лайк фильма из списка переставляет его в закэшированном списке без чтения хранилища
+        filmService.addLike(first.getId(), 1L);
+        filmService.addLike(first.getId(), 2L);
+        assertEquals(first.getId(), filmService.getMostPopular(3).get(0).getId());
+        assertEquals(2.0, popularRequests("miss"));
+
+        // Снятый лайк опускает фильм до границы полного списка: за ней мог оказаться другой фильм
+        filmService.removeLike(second.getId(), 1L);
+        assertEquals(first.getId(), filmService.getMostPopular(3).get(0).getId());
+        assertEquals(3.0, popularRequests("miss"));
+
+        assertEquals(32, filmService.getMostPopular(1001).size());
+        assertEquals(1.0, popularRequests("bypass"));
+    }
+
+    @Test
+    void testLikeOfTopFilmKeepsPopularListCached() {
+        Film leader = filmService.add(validFilm("Leader"));
+        Film runnerUp = filmService.add(validFilm("Runner-up"));
+        Film third = filmService.add(validFilm("Third"));
+        filmService.addLike(leader.getId(), 1L);
+        filmService.addLike(leader.getId(), 2L);
+        filmService.addLike(runnerUp.getId(), 1L);
+        assertEquals(List.of(leader.getId(), runnerUp.getId(), third.getId()),
+                filmService.getMostPopular(3).stream().map(Film::getId).toList());
+
+        filmService.addLike(leader.getId(), 3L);
+        filmService.addLike(runnerUp.getId(), 2L);
+        filmService.addLike(runnerUp.getId(), 3L);
+        filmService.addLike(runnerUp.getId(), 4L);
+
+        assertEquals(List.of(runnerUp.getId(), leader.getId(), third.getId()),
+                filmService.getMostPopular(3).stream().map(Film::getId).toList());
+        assertEquals(1.0, popularRequests("miss"));
+        assertEquals(1.0, popularRequests("hit"));
+        assertEquals(0.0, meterRegistry.get("filmorate.cache.popular.invalidations").counter().count());
+    }
+
+    @Test
+    void testConcurrentPopularMissesReadStorageOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger storageReads = new AtomicInteger();
+        InMemoryFilmStorage slowStorage = new InMemoryFilmStorage() {
+            @Override
+            public List<Film> getPopular(int count, Integer genreId, Long mpaId, Integer year) {
+                storageReads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getPopular(count, genreId, mpaId, year);
+            }
+        };
+        slowStorage.add(validFilm("Film"));
+        MeterRegistry registry = new SimpleMeterRegistry();
+        PopularFilmsCache cache = new PopularFilmsCache(slowStorage,
+                new LikeWriteBehindBuffer(slowStorage, new LikeWriteBehindProperties()),
+                new PopularFilmsCacheProperties(), registry);
+
+        CompletableFuture<List<Film>> first = CompletableFuture.supplyAsync(() -> cache.getPopular(5));
+        loading.await();
+        CompletableFuture<List<Film>> second = CompletableFuture.supplyAsync(() -> cache.getPopular(3));
+        // Второй запрос успевает встать в ожидание загрузки первого
+        while (registry.get("filmorate.cache.popular.requests").tag("result", "coalesced").counter().count() == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertEquals(first.get(), second.get());
+        assertEquals(1, storageReads.get());
+        assertEquals(1, cache.getPopular(10).size());
+        assertEquals(1, storageReads.get());
+    }
+
+    @Test
+    void testPopularFilmsCacheEvictsLeastRecentlyUsedLists() {
+        PopularFilmsCacheProperties properties = new PopularFilmsCacheProperties();
+        properties.setMaxFilms(60);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        PopularFilmsCache cache = new PopularFilmsCache(filmStorage,
+                new LikeWriteBehindBuffer(filmStorage, new LikeWriteBehindProperties()), properties, registry);
+        for (int i = 0; i < 60; i++) {
+            filmService.add(validFilm("Film " + i));
+        }
+
+        cache.getPopular(10);
+        cache.getPopular(20);
+        cache.getPopular(10);
+        cache.getPopular(50);
+
+        // Давнее всех читался список на 20: он и вытесняется
+        assertEquals(1.0, registry.get("filmorate.cache.popular.evictions").counter().count());
+        assertEquals(60.0, registry.get("filmorate.cache.popular.films").gauge().value());
+    }
+
+    @Test
+    void testFilteredPopularFilmsAreCachedPerFilter() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController).build();
+        Film comedy = filmService.add(film("Comedy", "Description", 2020, 1));
+        Film drama = filmService.add(film("Drama", "Description", 2020, 2));
+        Film oldComedy = filmService.add(film("Old comedy", "Description", 1990, 1));
+        filmService.addLike(drama.getId(), 1L);
+        filmService.addLike(oldComedy.getId(), 1L);
+
+        mockMvc.perform(get("/films/popular").param("genreId", "1").param("size", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(oldComedy.getId()))
+                .andExpect(jsonPath("$[1].id").value(comedy.getId()));
+        assertEquals(List.of(drama.getId(), comedy.getId()),
+                filmService.getMostPopular(5, null, null, 2020).stream().map(Film::getId).toList());
+        assertEquals(List.of(oldComedy.getId()),
+                filmService.getMostPopular(1, 1, null, null).stream().map(Film::getId).toList());
+        assertEquals(2.0, popularRequests("miss"));
+        assertEquals(1.0, popularRequests("hit"));
+
+        // Смена жанра вводит фильм в отфильтрованные списки, где его ещё не было
+        Film changed = film("Drama", "Description", 2020, 1);
+        changed.setId(drama.getId());
+        filmService.update(changed);
+        assertEquals(List.of(drama.getId(), oldComedy.getId(), comedy.getId()),
+                filmService.getMostPopular(5, 1, null, null).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testTrendingRanksByDecayedLikesAndExpiresOldBuckets() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController).build();
+        Film blockbuster = filmService.add(validFilm("Blockbuster"));
+        Film fresh = filmService.add(validFilm("Fresh"));
+        Film other = filmService.add(validFilm("Other"));
+        for (long userId = 1; userId <= 3; userId++) {
+            filmService.addLike(blockbuster.getId(), userId);
+        }
+
+        // Два периода полураспада: три старых лайка весят 0.75, один свежий — 1
+        clock.advance(Duration.ofHours(48));
+        filmService.addLike(fresh.getId(), 1L);
+        assertEquals(0.75, trending.getScore(blockbuster.getId()), 1e-9);
+        assertEquals(1.0, trending.getScore(fresh.getId()), 1e-9);
+        mockMvc.perform(get("/films/trending").param("size", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(fresh.getId()))
+                .andExpect(jsonPath("$[1].id").value(blockbuster.getId()));
+
+        filmService.removeLike(fresh.getId(), 1L);
+        assertEquals(List.of(blockbuster.getId()), trending.getTrending(5));
+
+        // Корзина старых лайков выходит за недельное окно и вычитается из очков
+        clock.advance(Duration.ofDays(6));
+        filmService.addLike(other.getId(), 1L);
+        trending.expire();
+        assertEquals(List.of(other.getId()), trending.getTrending(5));
+        assertEquals(0.0, trending.getScore(blockbuster.getId()));
+
+        // Сдвиг опорной точки весов не меняет ни порядок, ни очки
+        clock.advance(Duration.ofDays(40));
+        filmService.addLike(fresh.getId(), 2L);
+        filmService.addLike(fresh.getId(), 3L);
+        filmService.addLike(blockbuster.getId(), 4L);
+        trending.expire();
+        assertEquals(List.of(fresh.getId(), blockbuster.getId()), trending.getTrending(5));
+        assertEquals(2.0, trending.getScore(fresh.getId()), 1e-9);
+        assertThrows(ConditionsNotMetException.class, () -> trending.getTrending(0));
+    }
+
+    @Test
+    void testFilmsAreFetchedByIdsInRequestOrder() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController).build();
+        Film first = filmService.add(validFilm("First"));
+        Film second = filmService.add(validFilm("Second"));
+        filmService.getJsonById(second.getId());
+
+        mockMvc.perform(get("/films").param("ids", second.getId() + ",999," + first.getId() + ",998,999"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.films.length()").value(2))
+                .andExpect(jsonPath("$.films[0].id").value(second.getId()))
+                .andExpect(jsonPath("$.films[0].name").value("Second"))
+                .andExpect(jsonPath("$.films[1].id").value(first.getId()))
+                .andExpect(jsonPath("$.missing.length()").value(2))
+                .andExpect(jsonPath("$.missing[0]").value(999))
+                .andExpect(jsonPath("$.missing[1]").value(998));
+        // Второй фильм уже был в кэше JSON, первый загружен одним пакетом вместе с отсутствующими id
+        assertEquals(1.0, meterRegistry.get("filmorate.cache.film.json.requests").tag("result", "hit")
+                .counter().count());
+        assertEquals(4.0, meterRegistry.get("filmorate.cache.film.json.requests").tag("result", "miss")
+                .counter().count());
+        assertThrows(ConditionsNotMetException.class, () -> filmService.getJsonByIds(List.of()));
+    }
+
+    @Test
+    void testFilmJsonIsCachedAndServedWithETag() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController).build();
+        Film film = filmService.add(validFilm("Film"));
+
+        MvcResult first = mockMvc.perform(get("/films/{id}", film.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Film"))
+                .andReturn();
+        String eTag = first.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/films/{id}", film.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+        assertEquals(1.0, meterRegistry.get("filmorate.cache.film.json.requests").tag("result", "hit")
+                .counter().count());
+
+        Film changed = validFilm("Renamed");
+        changed.setId(film.getId());
+        filmService.update(changed);
+        mockMvc.perform(get("/films/{id}", film.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Renamed"))
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+        mockMvc.perform(get("/films/{id}", 9999))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void testConditionalUpdatesRejectStaleETag() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+        Film film = filmService.add(validFilm("Film"));
+        String eTag = mockMvc.perform(get("/films/{id}", film.getId()))
+                .andExpect(jsonPath("$.version").value(0))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertEquals("\"0\"", eTag);
+
+        mockMvc.perform(patch("/films/{id}", film.getId())
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Renamed\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value("Renamed"))
+                .andExpect(jsonPath("$.description").value("Description"))
+                .andExpect(jsonPath("$.version").value(1))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+
+        // Второй редактор со старым ETag получает 412 и не затирает изменения первого
+        Film stale = validFilm("Stale");
+        stale.setId(film.getId());
+        mockMvc.perform(put("/films")
+                        .header(HttpHeaders.IF_MATCH, eTag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(stale)))
+                .andExpect(status().isPreconditionFailed());
+        assertEquals("Renamed", filmService.getById(film.getId()).getName());
+
+        // ETag из ответа PATCH тот же, что отдаёт GET
+        String current = mockMvc.perform(get("/films/{id}", film.getId()))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(put("/films")
+                        .header(HttpHeaders.IF_MATCH, "\"other\", " + current)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(stale)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(2))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2\""));
+
+        // Без If-Match условием служит версия из тела
+        Film outdated = validFilm("Outdated");
+        outdated.setId(film.getId());
+        outdated.setVersion(1L);
+        assertThrows(PreconditionFailedException.class, () -> filmService.update(outdated));
+        assertEquals("Stale", filmService.getById(film.getId()).getName());
+    }
+
+    @Test
+    void testUpdateWithoutIdIsNotFound() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        mockMvc.perform(put("/films")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(validFilm("Film"))))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("Фильм с id null не найден"));
+    }
+
+    @Test
+    void testSimilarFilmsAndRecommendationsFollowCoLikes() throws Exception {
+        Film matrix = filmService.add(validFilm("Matrix"));
+        Film reloaded = filmService.add(validFilm("Matrix Reloaded"));
+        Film amelie = filmService.add(validFilm("Amelie"));
+        Film heat = filmService.add(validFilm("Heat"));
+        for (long userId = 1; userId <= 3; userId++) {
+            filmService.addLike(matrix.getId(), userId);
+            filmService.addLike(reloaded.getId(), userId);
+        }
+        filmService.addLike(amelie.getId(), 3L);
+        filmService.addLike(heat.getId(), 4L);
+        filmService.addLike(matrix.getId(), 5L);
+        recommendations.refreshStale();
+
+        assertEquals(List.of(reloaded.getId(), amelie.getId()), recommendations.getSimilarFilms(matrix.getId(), 10));
+        assertEquals(List.of(), recommendations.getSimilarFilms(heat.getId(), 10));
+        assertEquals(List.of(reloaded.getId(), amelie.getId()), recommendations.getRecommendations(5L, 10));
+
+        // Снятый лайк убирает связь после фонового пересчёта
+        filmService.removeLike(amelie.getId(), 3L);
+        recommendations.refreshStale();
+        assertEquals(List.of(reloaded.getId()), recommendations.getRecommendations(5L, 10));
+
+        // Перестройка из хранилища даёт тот же индекс
+        RecommendationService rebuilt = new RecommendationService(filmStorage, new RecommendationProperties());
+        rebuilt.rebuild();
+        assertEquals(List.of(reloaded.getId()), rebuilt.getSimilarFilms(matrix.getId(), 10));
+        assertThrows(ConditionsNotMetException.class, () -> rebuilt.getRecommendations(5L, 0));
+
+        userStorage.add(new User(null, "viewer@example.com", "viewer", "Viewer", LocalDate.of(2000, 1, 1), null, null));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new RecommendationController(filmService)).build();
+        mockMvc.perform(get("/films/{id}/similar", matrix.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].name").value("Matrix Reloaded"));
+        mockMvc.perform(get("/users/{id}/recommendations", 1L).param("count", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void testLikeUpdatesOnlyPairsWithUsersFilms() {
+        RecommendationProperties properties = new RecommendationProperties();
+        properties.setLikeFanOut(1);
+        RecommendationService index = new RecommendationService(filmStorage, properties);
+        Film matrix = filmService.add(validFilm("Matrix"));
+        Film reloaded = filmService.add(validFilm("Matrix Reloaded"));
+        Film heat = filmService.add(validFilm("Heat"));
+        Film amelie = filmService.add(validFilm("Amelie"));
+        index.onLikeChanged(matrix.getId(), 1L, true);
+        index.onLikeChanged(reloaded.getId(), 1L, true);
+        index.onLikeChanged(heat.getId(), 2L, true);
+        index.refreshStale();
+        assertEquals(List.of(reloaded.getId()), index.getSimilarFilms(matrix.getId(), 10));
+
+        // Без фонового пересчёта: лайк обновляет пару с первым фильмом пользователя, второй — за ограничением
+        index.onLikeChanged(amelie.getId(), 1L, true);
+        assertEquals(List.of(reloaded.getId(), amelie.getId()), index.getSimilarFilms(matrix.getId(), 10));
+        assertEquals(List.of(matrix.getId()), index.getSimilarFilms(reloaded.getId(), 10));
+        assertEquals(List.of(), index.getSimilarFilms(heat.getId(), 10));
+
+        index.onLikeChanged(amelie.getId(), 1L, false);
+        assertEquals(List.of(reloaded.getId()), index.getSimilarFilms(matrix.getId(), 10));
+    }
+
+    @Test
+    void testFilmSearchRanksFiltersAndPaginates() throws Exception {
+        Film matrix = filmService.add(film("Матрица", "Хакер узнаёт правду о мире", 1999, 1));
+        Film reloaded = filmService.add(film("Матрица: Перезагрузка", "Продолжение истории хакера", 2003, 1));
+        Film hackers = filmService.add(film("Хакеры", "Подростки-хакеры против корпорации", 1995, 2));
+        Film amelie = filmService.add(film("Амели", "Парижская сказка", 2001, 4));
+
+        assertEquals(List.of(matrix.getId(), reloaded.getId()), searchIds("матрица", null, null));
+        assertEquals(List.of(reloaded.getId()), searchIds("МАТРИЦА", null, 2003));
+        assertEquals(List.of(hackers.getId()), searchIds("хакер", 2, null));
+        // Последнее слово ищется как префикс, «ё» и «е» не различаются
+        assertEquals(hackers.getId(), searchIds("хак", null, null).get(0));
+        assertEquals(3, searchIds("хак", null, null).size());
+        assertEquals(List.of(reloaded.getId()), searchIds("матрица перез", null, null));
+        assertEquals(List.of(matrix.getId()), searchIds("узнает", null, null));
+        assertEquals(List.of(), searchIds("терминатор", null, null));
+
+        Film renamed = film("Матрица: Воскрешение", "Парижская сказка", 2021, 4);
+        renamed.setId(amelie.getId());
+        filmService.update(renamed);
+        assertEquals(List.of(), searchIds("амели", null, null));
+
+        FilmSearchIndex.Hits page = filmService.search("матрица", null, null, null, 1, 1);
+        assertEquals(3, page.total());
+        assertEquals(1, page.filmIds().size());
+        assertThrows(ConditionsNotMetException.class, () -> filmService.search(" ", null, null, null, 0, 10));
+        assertThrows(ConditionsNotMetException.class, () -> filmService.search("матрица", null, null, null, 995, 10));
+
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(filmController).build();
+        mockMvc.perform(get("/films/search").param("query", "матрица").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(FilmController.TOTAL_COUNT_HEADER, "3"))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].name").value("Матрица"));
+    }
+
+    private List<Long> searchIds(String query, Integer genreId, Integer year) {
+        return filmService.search(query, genreId, null, year, 0, 20).filmIds();
+    }
+
+    private Film film(String name, String description, int year, int genreId) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription(description);
+        film.setReleaseDate(LocalDate.of(year, 1, 1));
+        film.setDuration(120);
+        film.setGenres(Set.of(new Genre(genreId, null)));
+        return film;
+    }
+
+    private FilmService bufferedService(LikeWriteBehindBuffer likeBuffer) {
+        PopularFilmsCache cache = new PopularFilmsCache(filmStorage, likeBuffer, new PopularFilmsCacheProperties(),
+                meterRegistry);
+        return new FilmService(filmStorage, userStorage, referenceData, likeBuffer, cache, filmJsonCache,
+                recommendations, searchIndex, trending, 500);
+    }
+
+    private double popularRequests(String result) {
+        return meterRegistry.get("filmorate.cache.popular.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void testCreateFilmResolvesReferenceDataFromCache() {
+        Film film = validFilm("Film");
+        film.setMpaRating(new MpaRating(3L, null));
+        film.setGenres(Set.of(new Genre(2, null), new Genre(1, null)));
+
+        Film created = filmService.add(film);
+
+        assertEquals("PG-13", created.getMpaRating().getName());
+        assertEquals(List.of(new Genre(1, "Комедия"), new Genre(2, "Драма")), List.copyOf(created.getGenres()));
+    }
+
+    @Test
+    void testCreateFilmWithUnknownGenre() {
+        Film film = validFilm("Film");
+        film.setGenres(Set.of(new Genre(42, null)));
+
+        Exception exception = assertThrows(ValidationException.class, () -> filmService.add(film));
+
+        assertEquals("Жанр с id 42 не найден", exception.getMessage());
+    }
+
+    @Test
+    void testBulkImportFromNdjsonReportsRowErrors() throws Exception {
+        String body = """
+                {"name":"First","description":"d","releaseDate":"2000-01-01","duration":90,"mpa":{"id":1}}
+                {"name":"","description":"d","releaseDate":"2000-01-01","duration":90}
+                {"name":"Broken","releaseDate":"not a date","duration":90}
+                {"name":"Second","description":"d","releaseDate":"2001-01-01","duration":100,"genres":[{"id":2}]}
+                """;
+
+        ImportResult result = filmController.importAll(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))).getBody();
+
+        assertEquals(2, result.getImported());
+        assertEquals(List.of(2, 3), result.getErrors().stream().map(ImportResult.RowError::getRow).toList());
+        assertEquals("Название фильма не может быть пустым", result.getErrors().get(0).getMessage());
+        assertEquals(List.of("First", "Second"), filmStorage.getAll().stream().map(Film::getName).toList());
+    }
+
+    @Test
+    void testBulkImportFromJsonArray() throws Exception {
+        String body = """
+                [{"name":"First","description":"d","releaseDate":"2000-01-01","duration":90},
+                 {"name":"Second","description":"d","releaseDate":"1800-01-01","duration":90}]
+                """;
+
+        ImportResult result = filmController.importAll(
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))).getBody();
+
+        assertEquals(1, result.getImported());
+        assertEquals(2, result.getErrors().get(0).getRow());
+    }
+
+    private static final class TestClock extends Clock {
+        private Instant now;
+
+        TestClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    private Film validFilm(String name) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setDuration(120);
+        return film;
+    }
 }
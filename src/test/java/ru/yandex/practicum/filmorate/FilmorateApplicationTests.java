@@ -1,27 +1,68 @@
 package ru.yandex.practicum.filmorate;
 
 import lombok.RequiredArgsConstructor;
+import org.flywaydb.core.Flyway;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.MetricsAutoConfiguration;
+import org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmPatch;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.ImportResult;
+import ru.yandex.practicum.filmorate.model.LikeChange;
 import ru.yandex.practicum.filmorate.model.MpaRating;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
+import ru.yandex.practicum.filmorate.service.RecommendationService;
+import ru.yandex.practicum.filmorate.service.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.service.TrendingProperties;
+import ru.yandex.practicum.filmorate.service.TrendingService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.DataAccessSelfCheck;
 import ru.yandex.practicum.filmorate.storage.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.MpaRatingDbStorage;
 import ru.yandex.practicum.filmorate.storage.UserDbStorage;
 
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
+@ImportAutoConfiguration({JacksonAutoConfiguration.class, AopAutoConfiguration.class, MetricsAutoConfiguration.class,
+        SimpleMetricsExportAutoConfiguration.class, CompositeMeterRegistryAutoConfiguration.class})
 @ComponentScan(basePackages = "ru.yandex.practicum.filmorate")
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 public class FilmorateApplicationTests {
@@ -30,6 +71,14 @@ public class FilmorateApplicationTests {
 
     private final UserDbStorage userStorage;
 
+    private final DataSource dataSource;
+
+    private final MeterRegistry meterRegistry;
+
+    private final RecommendationService recommendationService;
+
+    private final DataAccessSelfCheck dataAccessSelfCheck;
+
     @Test
     public void testCreateAndFindFilm() {
         Film film = new Film();
@@ -215,5 +264,656 @@ public class FilmorateApplicationTests {
         assertFalse(deletedUser.isPresent());
     }
 
-}
+    @Test
+    public void testFilmReadsLoadGenresWithConstantQueryCount() {
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+
+        for (int i = 1; i <= 5; i++) {
+            Film film = new Film();
+            film.setName("Film " + i);
+            film.setDescription("Description " + i);
+            film.setReleaseDate(LocalDate.of(2024, 1, i));
+            film.setDuration(100 + i);
+            film.setMpaRating(new MpaRating(1L, "G"));
+            film.setGenres(Set.of(new Genre(1, "Комедия"), new Genre(2, "Драма")));
+            filmStorage.add(film);
+        }
+
+        countingDataSource.reset();
+        Collection<Film> films = countingStorage.getAll();
+        assertEquals(2, countingDataSource.getQueryCount(), "Жанры должны загружаться одним запросом на всю выборку");
+        assertEquals(5, films.size());
+        assertTrue(films.stream().allMatch(f -> f.getGenres().size() == 2));
+
+        countingDataSource.reset();
+        List<Film> popular = countingStorage.getPopular(5);
+        assertEquals(2, countingDataSource.getQueryCount(), "Жанры должны загружаться одним запросом на всю выборку");
+        assertTrue(popular.stream().allMatch(f -> f.getGenres().size() == 2));
+
+        countingDataSource.reset();
+        Optional<Film> film = countingStorage.getById(popular.get(0).getId());
+        assertEquals(2, countingDataSource.getQueryCount());
+        assertTrue(film.isPresent());
+        assertEquals(List.of(1, 2), film.get().getGenres().stream().map(Genre::getId).toList());
+    }
+
+    @Test
+    public void testFilmPageAndStream() {
+        for (int i = 1; i <= 3; i++) {
+            Film film = new Film();
+            film.setName("Film " + i);
+            film.setDescription("Description " + i);
+            film.setReleaseDate(LocalDate.of(2024, 1, i));
+            film.setDuration(90);
+            film.setMpaRating(new MpaRating(1L, "G"));
+            film.setGenres(Set.of(new Genre(i, "Жанр")));
+            filmStorage.add(film);
+        }
+        List<Long> ids = filmStorage.getAll().stream().map(Film::getId).sorted().toList();
+
+        List<Film> page = filmStorage.getPage(ids.get(0), 10);
+        assertEquals(ids.subList(1, 3), page.stream().map(Film::getId).toList());
+        assertEquals(1, page.get(0).getGenres().size());
+
+        List<Film> streamed = new ArrayList<>();
+        filmStorage.streamAll(streamed::add);
+        assertEquals(ids, streamed.stream().map(Film::getId).toList());
+        assertTrue(streamed.stream().allMatch(f -> f.getGenres().size() == 1 && f.getMpaRating() != null));
+    }
+
+    @Test
+    public void testUserPageAndStream() {
+        for (int i = 1; i <= 3; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@example.com");
+            user.setLogin("user" + i);
+            user.setName("User " + i);
+            user.setBirthday(LocalDate.of(1990, 1, i));
+            userStorage.add(user);
+        }
+        List<Long> ids = userStorage.getAll().stream().map(User::getId).sorted().toList();
+
+        assertEquals(ids.subList(0, 2), userStorage.getPage(0, 2).stream().map(User::getId).toList());
+
+        List<User> streamed = new ArrayList<>();
+        userStorage.streamAll(streamed::add);
+        assertEquals(ids, streamed.stream().map(User::getId).toList());
+    }
+
+    @Test
+    public void testPopularUsesMaintainedLikeCounters() {
+        Film first = createFilm("First");
+        Film second = createFilm("Second");
+        Film third = createFilm("Third");
+        User alice = createUser("alice");
+        User bob = createUser("bob");
+
+        filmStorage.likeFilm(second.getId(), alice.getId());
+        filmStorage.likeFilm(second.getId(), bob.getId());
+        filmStorage.likeFilm(first.getId(), alice.getId());
+
+        List<Film> popular = filmStorage.getPopular(3);
+        assertEquals(List.of(second.getId(), first.getId(), third.getId()), popular.stream().map(Film::getId).toList());
+        assertEquals(2, popular.get(0).getLikesCount());
+
+        filmStorage.unlikeFilm(second.getId(), bob.getId());
+        filmStorage.unlikeFilm(second.getId(), alice.getId());
+        assertEquals(first.getId(), filmStorage.getPopular(1).get(0).getId());
+    }
+
+    @Test
+    public void testMigrationBackfillsCountersOfLikesWrittenBeforeIt() {
+        // Отдельная база, доведённая до V7: лайки записаны без счётчиков, как до появления V2
+        String url = "jdbc:h2:mem:like_counters_backfill;DB_CLOSE_DELAY=-1";
+        Flyway.configure().dataSource(url, "sa", null).target("7").load().migrate();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(url, "sa", null));
+        jdbcTemplate.update("INSERT INTO users (id, email, login, name, birthday) VALUES " +
+                "(1, 'a@example.com', 'a', 'a', '1990-01-01'), (2, 'b@example.com', 'b', 'b', '1990-01-01')");
+        jdbcTemplate.update("INSERT INTO films (id, name, release_date, duration, rating_id) VALUES " +
+                "(1, 'Old', '2000-01-01', 100, 1), (2, 'Fresh', '2000-01-01', 100, 1)");
+        jdbcTemplate.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 1), (2, 1)");
+        jdbcTemplate.update("INSERT INTO film_likes (film_id, user_id) VALUES (1, 1), (1, 2), (2, 1)");
+
+        Flyway.configure().dataSource(url, "sa", null).load().migrate();
+
+        assertEquals(List.of(2, 1), jdbcTemplate.queryForList("SELECT likes_count FROM films ORDER BY id", Integer.class));
+        assertEquals(List.of(2, 1),
+                jdbcTemplate.queryForList("SELECT likes_count FROM film_genres ORDER BY film_id", Integer.class));
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+
+    @Test
+    public void testRebuildLikeCountersRestoresConsistency() {
+        Film liked = createFilm("Liked");
+        Film corrupted = createFilm("Corrupted");
+        User user = createUser("user");
+        filmStorage.likeFilm(liked.getId(), user.getId());
+
+        new JdbcTemplate(dataSource).update("UPDATE films SET likes_count = 100 WHERE id = ?", corrupted.getId());
+        assertEquals(corrupted.getId(), filmStorage.getPopular(1).get(0).getId());
+
+        assertEquals(1, filmStorage.rebuildLikeCounters());
+        assertEquals(liked.getId(), filmStorage.getPopular(1).get(0).getId());
+        assertEquals(0, filmStorage.rebuildLikeCounters());
+    }
+
+    @Test
+    public void testLikeAndUnlikeAreSingleWrites() {
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+        Film film = createFilm("Film");
+        User user = createUser("user");
+
+        countingDataSource.reset();
+        countingStorage.likeFilm(film.getId(), user.getId());
+        assertEquals(3, countingDataSource.getQueryCount(), "Лайк: условная вставка и обновление счётчиков фильма и жанров");
+
+        countingDataSource.reset();
+        countingStorage.unlikeFilm(film.getId(), user.getId());
+        assertEquals(3, countingDataSource.getQueryCount(), "Удаление лайка: удаление и обновление счётчиков фильма и жанров");
+        assertEquals(0, countingStorage.getById(film.getId()).orElseThrow().getLikesCount());
+    }
+
+    @Test
+    public void testLikeFailuresKeepExceptionSemantics() {
+        Film film = createFilm("Film");
+        User user = createUser("user");
+        filmStorage.likeFilm(film.getId(), user.getId());
+
+        assertThrows(ConditionsNotMetException.class, () -> filmStorage.likeFilm(film.getId(), user.getId()));
+        NotFoundException missingUser = assertThrows(NotFoundException.class,
+                () -> filmStorage.likeFilm(film.getId(), user.getId() + 1000));
+        assertEquals("Пользователь с id " + (user.getId() + 1000) + " не найден", missingUser.getMessage());
+        NotFoundException missingFilm = assertThrows(NotFoundException.class,
+                () -> filmStorage.unlikeFilm(film.getId() + 1000, user.getId()));
+        assertEquals("Фильм с id " + (film.getId() + 1000) + " не найден", missingFilm.getMessage());
+
+        filmStorage.unlikeFilm(film.getId(), user.getId());
+        assertThrows(ConditionsNotMetException.class, () -> filmStorage.unlikeFilm(film.getId(), user.getId()));
+        assertEquals(0, filmStorage.getById(film.getId()).orElseThrow().getLikesCount());
+    }
+
+    @Test
+    public void testSaveLikeChangesIsIdempotentAndUpdatesCounters() {
+        Film first = createFilm("First");
+        Film second = createFilm("Second");
+        User alice = createUser("alice");
+        User bob = createUser("bob");
+        filmStorage.likeFilm(first.getId(), alice.getId());
+
+        filmStorage.saveLikeChanges(List.of(
+                new LikeChange(first.getId(), alice.getId(), true),
+                new LikeChange(first.getId(), bob.getId(), true),
+                new LikeChange(second.getId(), alice.getId(), true),
+                new LikeChange(second.getId(), bob.getId(), false)));
+
+        assertEquals(2, filmStorage.getById(first.getId()).orElseThrow().getLikesCount());
+        assertEquals(1, filmStorage.getById(second.getId()).orElseThrow().getLikesCount());
+        assertTrue(filmStorage.isLiked(second.getId(), alice.getId()));
+        assertFalse(filmStorage.isLiked(second.getId(), bob.getId()));
+        assertEquals(0, filmStorage.rebuildLikeCounters());
+    }
+
+    @Test
+    public void testReferenceDataCacheServesLookupsWithoutQueries() {
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        JdbcTemplate countingJdbcTemplate = new JdbcTemplate(countingDataSource);
+        ReferenceDataCache referenceData = new ReferenceDataCache(new GenreDbStorage(countingJdbcTemplate),
+                new MpaRatingDbStorage(countingJdbcTemplate));
+        referenceData.refresh();
+
+        countingDataSource.reset();
+        assertEquals("Комедия", referenceData.getGenreById(1).orElseThrow().getName());
+        assertEquals("NC-17", referenceData.getMpaRatingById(5L).orElseThrow().getName());
+        assertTrue(referenceData.getGenreById(100).isEmpty());
+        assertEquals(6, referenceData.getAllGenres().size());
+        assertEquals(5, referenceData.getAllMpaRatings().size());
+        assertEquals(0, countingDataSource.getQueryCount());
+    }
+
+    @Test
+    public void testFilmGenresAreWrittenInBatchesAndDiffedOnUpdate() {
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+        Film film = new Film();
+        film.setName("Film");
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2024, 1, 1));
+        film.setDuration(120);
+        film.setMpaRating(new MpaRating(1L, "G"));
+        film.setGenres(Set.of(new Genre(1, "Комедия"), new Genre(2, "Драма"), new Genre(3, "Мультфильм")));
+
+        countingDataSource.reset();
+        countingStorage.add(film);
+        assertEquals(2, countingDataSource.getQueryCount(), "Фильм и один пакет жанров");
+
+        film.setGenres(Set.of(new Genre(2, "Драма"), new Genre(3, "Мультфильм"), new Genre(4, "Триллер")));
+        countingDataSource.reset();
+        countingStorage.update(film);
+        assertEquals(4, countingDataSource.getQueryCount(), "Обновление, чтение текущих жанров, пакеты удаления и вставки");
+        assertEquals(List.of(2, 3, 4), filmStorage.getById(film.getId()).orElseThrow().getGenres().stream()
+                .map(Genre::getId).toList());
+
+        countingDataSource.reset();
+        countingStorage.update(film);
+        assertEquals(2, countingDataSource.getQueryCount(), "Без изменений жанров пишется только строка фильма");
+    }
+
+    @Test
+    public void testFilmsAreImportedInJdbcBatches() {
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Film film = new Film();
+            film.setName("Film " + i);
+            film.setDescription("Description");
+            film.setReleaseDate(LocalDate.of(2024, 1, 1));
+            film.setDuration(120);
+            film.setMpaRating(new MpaRating(1L, "G"));
+            film.setGenres(Set.of(new Genre(1 + i % 6, null)));
+            films.add(film);
+        }
+
+        countingDataSource.reset();
+        countingStorage.addAll(films);
+
+        assertEquals(2, countingDataSource.getQueryCount(), "Пакет фильмов и пакет жанров");
+        for (Film film : films) {
+            Film stored = filmStorage.getById(film.getId()).orElseThrow();
+            assertEquals(film.getName(), stored.getName());
+            assertEquals(film.getGenres().iterator().next().getId(), stored.getGenres().iterator().next().getId());
+        }
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testUserImportRetriesFailedBatchRowByRow() {
+        // Вне тестовой транзакции: пакет должен откатываться собственной транзакцией addAll
+        UserService userService = new UserService(userStorage, 2);
+        List<String> names = List.of("first", "taken", "second", "third");
+        List<User> users = new ArrayList<>();
+        for (String name : names) {
+            User user = new User();
+            user.setEmail(name + "@example.com");
+            user.setLogin(name);
+            user.setName(name);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            users.add(user);
+        }
+        try {
+            createUser("taken");
+
+            ImportResult result = userService.importUsers(users.iterator());
+
+            assertEquals(3, result.getImported());
+            assertEquals(1, result.getErrors().size());
+            assertEquals(2, result.getErrors().get(0).getRow());
+            assertEquals(List.of("taken", "first", "second", "third"),
+                    userStorage.getAll().stream().map(User::getName).toList());
+        } finally {
+            new JdbcTemplate(dataSource).update("DELETE FROM users WHERE name IN ('first', 'taken', 'second', 'third')");
+        }
+    }
+
+    @Test
+    public void testCommonFriendsOfUsersWithThousandsOfFriends() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            User user = new User();
+            user.setEmail("friend" + i + "@example.com");
+            user.setLogin("friend" + i);
+            user.setName("friend" + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            users.add(user);
+        }
+        userStorage.addAll(users);
+        User alice = createUser("alice");
+        User bob = createUser("bob");
+        // Алиса дружит с чётными, Боб — с кратными трём: общие друзья кратны шести
+        List<Object[]> friendships = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            long friendId = users.get(i).getId();
+            if (i % 2 == 0) {
+                friendships.add(new Object[] {alice.getId(), friendId});
+            }
+            if (i % 3 == 0) {
+                friendships.add(new Object[] {bob.getId(), friendId});
+            }
+            if (i % 6 == 0) {
+                expected.add(friendId);
+            }
+        }
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.batchUpdate("INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", friendships);
+
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        UserDbStorage countingStorage = new UserDbStorage(new JdbcTemplate(countingDataSource));
+        List<User> common = countingStorage.getCommonFriends(alice.getId(), bob.getId());
+
+        assertEquals(1, countingDataSource.getQueryCount(),
+                "Общие друзья 1500 x 1000 должны выбираться одним запросом вместе с данными пользователей");
+        assertEquals(expected, common.stream().map(User::getId).toList());
+    }
+
+    @Test
+    public void testStorageCallsAreTimedAndStatementsCounted() {
+        createFilm("First");
+        createFilm("Second");
+        double statementsBefore = meterRegistry.get("filmorate.jdbc.statements").functionCounter().count();
+        // Реестр общий для всех тестов контекста: сравниваются приращения
+        long popularCallsBefore = popularCalls();
+        double popularRowsBefore = popularRows();
+
+        filmStorage.getPopular(10);
+        List<Film> streamed = new ArrayList<>();
+        filmStorage.streamAll(streamed::add);
+
+        assertEquals(1, popularCalls() - popularCallsBefore);
+        assertEquals(2, popularRows() - popularRowsBefore);
+        assertEquals(streamed.size(), meterRegistry.get("filmorate.storage.rows")
+                .tags("storage", "FilmDbStorage", "method", "streamAll").summary().totalAmount());
+        assertEquals(3, meterRegistry.get("filmorate.jdbc.statements").functionCounter().count() - statementsBefore,
+                "Популярные: фильмы и жанры; поток: один запрос");
+
+        assertThrows(NotFoundException.class, () -> filmStorage.isLiked(9999L, 1L));
+        assertThrows(NotFoundException.class, () -> filmStorage.isLiked(9999L, 2L));
+        // Повторный исход пишется в тот же таймер, а не в новый
+        assertEquals(2, meterRegistry.get("filmorate.storage")
+                .tags("method", "isLiked", "outcome", "NotFoundException").timer().count());
+
+        // Вспомогательные компоненты пакета storage не являются хранилищами и не замеряются
+        dataAccessSelfCheck.check();
+        assertNull(meterRegistry.find("filmorate.storage").tags("storage", "DataAccessSelfCheck").timer());
+    }
+
+    @Test
+    public void testStorageLookupsUseIndexes() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        // Запросы хранилищ с условиями отбора; полные выборки (getAll, справочники) сюда не входят
+        Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id "
+                + "WHERE f.id = ?", new Object[] {1L});
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id "
+                + "WHERE f.id > ? ORDER BY f.id LIMIT ?", new Object[] {0L, 10});
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id "
+                + "ORDER BY f.likes_count DESC, f.id LIMIT ?", new Object[] {10});
+        queries.put("SELECT fg.film_id, g.genre_id, g.name FROM film_genres fg JOIN genres g ON fg.genre_id = g.genre_id "
+                + "WHERE fg.film_id = ANY(?) ORDER BY fg.film_id, g.genre_id", new Object[] {new Long[] {1L, 2L}});
+        queries.put("SELECT genre_id FROM film_genres WHERE film_id = ?", new Object[] {1L});
+        queries.put("SELECT film_id FROM film_genres WHERE genre_id = ?", new Object[] {1L});
+        queries.put("SELECT id FROM films WHERE rating_id = ?", new Object[] {1L});
+        queries.put("SELECT film_id FROM film_likes WHERE user_id = ?", new Object[] {1L});
+        queries.put("SELECT COUNT(*) FROM film_likes WHERE film_id = ? AND user_id = ?", new Object[] {1L, 1L});
+        queries.put("SELECT * FROM users WHERE id = ?", new Object[] {1L});
+        queries.put("SELECT * FROM users WHERE id > ? ORDER BY id LIMIT ?", new Object[] {0L, 10});
+        queries.put("SELECT u.* FROM users u JOIN friends f ON u.id = f.friend_id WHERE f.user_id = ?", new Object[] {1L});
+        queries.put("SELECT u.* FROM users u JOIN friends f ON u.id = f.user_id WHERE f.friend_id = ?", new Object[] {1L});
+        queries.put("SELECT u.* FROM friends f1 JOIN friends f2 ON f2.friend_id = f1.friend_id AND f2.user_id = ? "
+                + "JOIN users u ON u.id = f1.friend_id WHERE f1.user_id = ? ORDER BY u.id", new Object[] {2L, 1L});
+
+        for (Map.Entry<String, Object[]> query : queries.entrySet()) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + query.getKey(), String.class, query.getValue());
+            assertFalse(plan.contains("tableScan"), "Полный просмотр таблицы:\n" + plan);
+        }
+        // Миграция индексов не дублирует одностолбцовые индексы, которые H2 создаёт для внешних ключей
+        for (String[] column : List.of(new String[] {"FILM_LIKES", "USER_ID"}, new String[] {"FRIENDS", "FRIEND_ID"},
+                new String[] {"FILM_GENRES", "GENRE_ID"}, new String[] {"FILMS", "RATING_ID"})) {
+            Integer singleColumnIndexes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEX_COLUMNS c "
+                    + "WHERE c.TABLE_NAME = ? AND c.COLUMN_NAME = ? AND c.ORDINAL_POSITION = 1 "
+                    + "AND NOT EXISTS (SELECT 1 FROM INFORMATION_SCHEMA.INDEX_COLUMNS n WHERE n.TABLE_NAME = c.TABLE_NAME "
+                    + "AND n.INDEX_NAME = c.INDEX_NAME AND n.ORDINAL_POSITION = 2)", Integer.class, column[0], column[1]);
+            assertEquals(1, singleColumnIndexes, column[0] + "." + column[1]);
+        }
+    }
+
+    @Test
+    public void testFriendSuggestionsForUserWithThousandsOfFriends() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            User user = new User();
+            user.setEmail("member" + i + "@example.com");
+            user.setLogin("member" + i);
+            user.setName("member" + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            users.add(user);
+        }
+        userStorage.addAll(users);
+        User alice = createUser("alice");
+        // Алиса дружит с первыми 2000, у каждого из них 50 друзей среди всех 3000:
+        // у участника j общих друзей с Алисой тем больше, чем меньше j % 50
+        List<Object[]> friendships = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            friendships.add(new Object[] {alice.getId(), users.get(i).getId()});
+            for (int k = 0; k < 50; k++) {
+                int friend = (i + k * 60) % 3000;
+                if (friend != i) {
+                    friendships.add(new Object[] {users.get(i).getId(), users.get(friend).getId()});
+                }
+            }
+        }
+        new JdbcTemplate(dataSource).batchUpdate("INSERT INTO friends (user_id, friend_id) VALUES (?, ?)", friendships);
+
+        userStorage.getFriendSuggestions(alice.getId(), 10);
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        UserDbStorage countingStorage = new UserDbStorage(new JdbcTemplate(countingDataSource));
+        List<User> suggestions = countingStorage.getFriendSuggestions(alice.getId(), 10);
+
+        assertEquals(1, countingDataSource.getQueryCount(), "Рекомендации друзей 2000 x 50 одним запросом");
+        assertEquals(10, suggestions.size());
+        assertTrue(suggestions.stream().allMatch(user -> users.indexOf(user) >= 2000), "Только не друзья Алисы");
+    }
+
+    @Test
+    public void testRecommendationIndexIsRebuiltFromStoredLikes() {
+        Film first = createFilm("First");
+        Film second = createFilm("Second");
+        Film third = createFilm("Third");
+        User fan = createUser("fan");
+        User newcomer = createUser("newcomer");
+        filmStorage.likeFilm(first.getId(), fan.getId());
+        filmStorage.likeFilm(second.getId(), fan.getId());
+        filmStorage.likeFilm(third.getId(), fan.getId());
+        filmStorage.likeFilm(first.getId(), newcomer.getId());
+
+        Map<Long, List<Long>> likes = new LinkedHashMap<>();
+        filmStorage.streamLikes((filmId, userId) -> likes.computeIfAbsent(userId, id -> new ArrayList<>()).add(filmId));
+        assertEquals(3, likes.get(fan.getId()).size());
+
+        recommendationService.rebuild();
+        assertEquals(List.of(second.getId(), third.getId()), recommendationService.getSimilarFilms(first.getId(), 5));
+        assertEquals(List.of(second.getId(), third.getId()),
+                recommendationService.getRecommendations(newcomer.getId(), 5));
+    }
+
+    @Test
+    public void testPopularFilmsFilteredByGenreYearAndMpa() {
+        User alice = createUser("alice");
+        User bob = createUser("bob");
+        Film comedy2020 = createFilm("Comedy 2020", LocalDate.of(2020, 5, 1), 1L, 1);
+        Film drama2020 = createFilm("Drama 2020", LocalDate.of(2020, 7, 1), 2L, 2);
+        Film comedy2021 = createFilm("Comedy 2021", LocalDate.of(2021, 1, 1), 2L, 1, 2);
+        filmStorage.likeFilm(comedy2021.getId(), alice.getId());
+        filmStorage.likeFilm(comedy2021.getId(), bob.getId());
+        filmStorage.saveLikeChanges(List.of(new LikeChange(drama2020.getId(), alice.getId(), true),
+                new LikeChange(comedy2020.getId(), alice.getId(), true)));
+
+        assertEquals(List.of(comedy2021.getId(), comedy2020.getId()), popularIds(10, 1, null, null));
+        assertEquals(List.of(comedy2021.getId(), drama2020.getId()), popularIds(10, 2, null, null));
+        assertEquals(List.of(comedy2020.getId(), drama2020.getId()), popularIds(10, null, null, 2020));
+        assertEquals(List.of(comedy2021.getId(), drama2020.getId()), popularIds(10, null, 2L, null));
+        assertEquals(List.of(comedy2020.getId()), popularIds(10, 1, 1L, 2020));
+        assertEquals(List.of(comedy2021.getId()), popularIds(1, 1, null, null));
+        assertEquals(2, filmStorage.getPopular(1, 1, null, null).get(0).getLikesCount());
+
+        // Снятие лайка переставляет фильмы в жанре, а новый жанр приходит с текущим счётчиком
+        filmStorage.unlikeFilm(comedy2021.getId(), alice.getId());
+        filmStorage.unlikeFilm(comedy2021.getId(), bob.getId());
+        assertEquals(List.of(comedy2020.getId(), comedy2021.getId()), popularIds(10, 1, null, null));
+        drama2020.setGenres(Set.of(new Genre(1, "Комедия"), new Genre(2, "Драма")));
+        filmStorage.update(drama2020);
+        assertEquals(List.of(comedy2020.getId(), drama2020.getId(), comedy2021.getId()),
+                popularIds(10, 1, null, null));
+
+        new JdbcTemplate(dataSource).update("UPDATE film_genres SET likes_count = 100 WHERE film_id = ?",
+                comedy2021.getId());
+        filmStorage.rebuildLikeCounters();
+        assertEquals(comedy2020.getId(), popularIds(1, 1, null, null).get(0));
+
+        // Каждый фильтр читает свой индекс в порядке популярности: без полного просмотра и сортировки
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        Map<String, Object[]> queries = new LinkedHashMap<>();
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM film_genres fg JOIN films f ON f.id = fg.film_id "
+                + "LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id WHERE fg.genre_id = ? "
+                + "ORDER BY fg.genre_id, fg.likes_count DESC, fg.film_id LIMIT ?", new Object[] {1, 10});
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM films f LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id "
+                + "WHERE f.release_year = ? ORDER BY f.release_year, f.likes_count DESC, f.id LIMIT ?", new Object[] {2020, 10});
+        queries.put("SELECT f.*, m.name AS mpa_rating FROM films f USE INDEX (idx_films_rating_likes) "
+                + "LEFT JOIN mpa_ratings m ON f.rating_id = m.rating_id WHERE f.rating_id = ? ORDER BY f.rating_id, f.likes_count DESC, f.id LIMIT ?", new Object[] {2L, 10});
+        for (Map.Entry<String, Object[]> query : queries.entrySet()) {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + query.getKey(), String.class, query.getValue());
+            assertFalse(plan.contains("tableScan"), "Полный просмотр таблицы:\n" + plan);
+            assertTrue(plan.contains("index sorted"), "Сортировка выборки:\n" + plan);
+        }
+    }
+
+    @Test
+    public void testVersionedUpdatesWriteOnlyChangedColumns() {
+        Film film = createFilm("Film", LocalDate.of(2000, 1, 1), 1L, 1, 2);
+        assertEquals(0L, film.getVersion());
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+
+        FilmPatch rename = new FilmPatch();
+        rename.setName("Renamed");
+        rename.setVersion(0L);
+        countingDataSource.reset();
+        assertEquals(1L, countingStorage.patch(film.getId(), rename));
+        assertEquals(1, countingDataSource.getQueryCount(), "Проверка версии и запись в одном UPDATE");
+        Film patched = filmStorage.getById(film.getId()).orElseThrow();
+        assertEquals("Renamed", patched.getName());
+        assertEquals(film.getDescription(), patched.getDescription());
+        assertEquals(2, patched.getGenres().size());
+
+        // Устаревшая версия не перезаписывает фильм
+        assertThrows(PreconditionFailedException.class, () -> filmStorage.patch(film.getId(), rename));
+        film.setName("Stale");
+        assertThrows(PreconditionFailedException.class, () -> filmStorage.update(film));
+        assertEquals("Renamed", filmStorage.getById(film.getId()).orElseThrow().getName());
+        assertThrows(NotFoundException.class, () -> filmStorage.patch(999_999L, new FilmPatch()));
+
+        film.setVersion(1L);
+        film.setGenres(Set.of());
+        assertEquals(2L, filmStorage.update(film).getVersion());
+        assertEquals("Stale", filmStorage.getById(film.getId()).orElseThrow().getName());
+        assertTrue(filmStorage.getById(film.getId()).orElseThrow().getGenres().isEmpty());
+
+        User user = createUser("versioned");
+        UserPatch birthday = new UserPatch();
+        birthday.setBirthday(LocalDate.of(1999, 9, 9));
+        birthday.setVersion(0L);
+        assertEquals(1L, userStorage.patch(user.getId(), birthday));
+        assertThrows(PreconditionFailedException.class, () -> userStorage.patch(user.getId(), birthday));
+        User patchedUser = userStorage.getById(user.getId()).orElseThrow();
+        assertEquals(LocalDate.of(1999, 9, 9), patchedUser.getBirthday());
+        assertEquals(user.getLogin(), patchedUser.getLogin());
+        assertEquals(1L, patchedUser.getVersion());
+    }
+
+    @Test
+    public void testGetByIdsHydratesFilmsWithConstantQueryCount() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(createFilm("Film " + i, LocalDate.of(2000 + i % 20, 1, 1), 1L + i % 5, 1 + i % 6, 1 + (i + 1) % 6)
+                    .getId());
+        }
+        List<Long> requested = new ArrayList<>(ids.reversed());
+        requested.add(1, 999_999L);
+        QueryCountingDataSource countingDataSource = new QueryCountingDataSource(dataSource);
+        FilmDbStorage countingStorage = new FilmDbStorage(new JdbcTemplate(countingDataSource));
+
+        countingDataSource.reset();
+        List<Film> films = countingStorage.getByIds(requested);
+        assertEquals(2, countingDataSource.getQueryCount(), "Фильмы с MPA и жанры");
+        assertEquals(ids.reversed(), films.stream().map(Film::getId).toList());
+        Film last = films.get(0);
+        assertEquals(filmStorage.getById(last.getId()).orElseThrow(), last);
+        assertEquals(2, last.getGenres().size());
+        assertNotNull(last.getMpaRating().getName());
+        assertTrue(countingStorage.getByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    public void testTrendingLoadsOnlyLikesInsideWindow() {
+        Film fresh = createFilm("Fresh");
+        Film old = createFilm("Old");
+        User alice = createUser("alice");
+        User bob = createUser("bob");
+        filmStorage.likeFilm(fresh.getId(), alice.getId());
+        filmStorage.likeFilm(old.getId(), alice.getId());
+        filmStorage.likeFilm(old.getId(), bob.getId());
+        new JdbcTemplate(dataSource).update("UPDATE film_likes SET created_at = DATEADD('DAY', -30, CURRENT_TIMESTAMP) "
+                + "WHERE film_id = ?", old.getId());
+
+        List<Long> streamed = new ArrayList<>();
+        long since = System.currentTimeMillis() - Duration.ofDays(1).toMillis();
+        filmStorage.streamLikesSince(Instant.ofEpochMilli(since), (filmId, userId, likedAt) -> {
+            assertTrue(likedAt >= since, "Время лайка " + likedAt);
+            streamed.add(filmId);
+        });
+        assertEquals(List.of(fresh.getId()), streamed);
+
+        TrendingService trending = new TrendingService(filmStorage, new TrendingProperties());
+        trending.load();
+        assertEquals(List.of(fresh.getId()), trending.getTrending(10));
+    }
+
+    private long popularCalls() {
+        Timer timer = meterRegistry.find("filmorate.storage")
+                .tags("storage", "FilmDbStorage", "method", "getPopular", "outcome", "success").timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private double popularRows() {
+        DistributionSummary rows = meterRegistry.find("filmorate.storage.rows")
+                .tags("storage", "FilmDbStorage", "method", "getPopular").summary();
+        return rows == null ? 0 : rows.totalAmount();
+    }
+
+    private List<Long> popularIds(int count, Integer genreId, Long mpaId, Integer year) {
+        return filmStorage.getPopular(count, genreId, mpaId, year).stream().map(Film::getId).toList();
+    }
+
+    private Film createFilm(String name, LocalDate releaseDate, long mpaId, Integer... genreIds) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription("Description");
+        film.setReleaseDate(releaseDate);
+        film.setDuration(120);
+        film.setMpaRating(new MpaRating(mpaId, null));
+        film.setGenres(Arrays.stream(genreIds).map(id -> new Genre(id, null)).collect(Collectors.toSet()));
+        return filmStorage.add(film);
+    }
+
+    private Film createFilm(String name) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2024, 1, 1));
+        film.setDuration(120);
+        film.setMpaRating(new MpaRating(1L, "G"));
+        return filmStorage.add(film);
+    }
+
+    private User createUser(String login) {
+        User user = new User();
+        user.setEmail(login + "@example.com");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return userStorage.add(user);
+    }
 
+}
@@ -0,0 +1,161 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.InMemoryFilmStorage;
+import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InMemoryStorageConcurrencyTest {
+    private static final int THREADS = 64;
+
+    private InMemoryFilmStorage filmStorage;
+    private InMemoryUserStorage userStorage;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        filmStorage = new InMemoryFilmStorage();
+        userStorage = new InMemoryUserStorage();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testConcurrentAddsGetUniqueSequentialIds() throws Exception {
+        int perThread = 200;
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < perThread; i++) {
+                userStorage.add(user("u" + thread + "_" + i));
+                filmStorage.add(film("f" + thread + "_" + i));
+            }
+        });
+
+        Set<Long> expectedIds = LongStream.rangeClosed(1, THREADS * perThread).boxed().collect(Collectors.toSet());
+        assertEquals(expectedIds, userStorage.getAll().stream().map(User::getId).collect(Collectors.toSet()));
+        assertEquals(expectedIds, filmStorage.getAll().stream().map(Film::getId).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void testConcurrentLikesAreNotLost() throws Exception {
+        int filmCount = 50;
+        for (int i = 0; i < filmCount; i++) {
+            filmStorage.add(film("film" + i));
+        }
+
+        // Каждый поток — отдельный пользователь: лайкает все фильмы и снимает лайк с фильмов с чётным id
+        runConcurrently(thread -> {
+            long userId = thread + 1;
+            for (long filmId = 1; filmId <= filmCount; filmId++) {
+                filmStorage.likeFilm(filmId, userId);
+                filmStorage.likeFilm(filmId, userId);
+                filmStorage.getPopular(5);
+            }
+            for (long filmId = 2; filmId <= filmCount; filmId += 2) {
+                filmStorage.unlikeFilm(filmId, userId);
+            }
+        });
+
+        for (long filmId = 1; filmId <= filmCount; filmId++) {
+            Film film = filmStorage.getById(filmId).orElseThrow();
+            int expected = filmId % 2 == 0 ? 0 : THREADS;
+            assertEquals(expected, film.getLikesCount(), "Счётчик лайков фильма " + filmId);
+            assertEquals(expected, film.getLikes().size(), "Лайки фильма " + filmId);
+        }
+        List<Film> popular = filmStorage.getPopular(filmCount);
+        assertEquals(filmCount, popular.size());
+        assertEquals(filmCount, popular.stream().map(Film::getId).distinct().count());
+        assertTrue(popular.subList(0, filmCount / 2).stream().allMatch(film -> film.getLikesCount() == THREADS));
+        assertEquals(0, filmStorage.rebuildLikeCounters());
+    }
+
+    @Test
+    void testConcurrentFriendshipsAreNotLost() throws Exception {
+        User hub = userStorage.add(user("hub"));
+        User other = userStorage.add(user("other"));
+        int perThread = 50;
+        List<Long> friendIds = new ArrayList<>();
+        for (int i = 0; i < THREADS * perThread; i++) {
+            friendIds.add(userStorage.add(user("friend" + i)).getId());
+        }
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < perThread; i++) {
+                long friendId = friendIds.get(thread * perThread + i);
+                userStorage.addFriend(hub.getId(), friendId);
+                userStorage.addFriend(friendId, hub.getId());
+                if (i % 2 == 0) {
+                    userStorage.addFriend(other.getId(), friendId);
+                }
+                userStorage.getCommonFriends(hub.getId(), other.getId());
+            }
+        });
+
+        assertEquals(THREADS * perThread, userStorage.getFriends(hub.getId()).size());
+        assertEquals(THREADS * perThread / 2, userStorage.getCommonFriends(hub.getId(), other.getId()).size());
+        assertFalse(userStorage.getFriends(friendIds.get(0)).isEmpty());
+    }
+
+    private void runConcurrently(ThreadTask task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int threadIndex = thread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                task.run(threadIndex);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    private static User user(String login) {
+        User user = new User();
+        user.setEmail(login + "@example.com");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(2000, 1, 1));
+        return user;
+    }
+
+    private static Film film(String name) {
+        Film film = new Film();
+        film.setName(name);
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2000, 1, 1));
+        film.setDuration(100);
+        return film;
+    }
+}
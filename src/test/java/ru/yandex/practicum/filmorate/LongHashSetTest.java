@@ -0,0 +1,72 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.storage.LongHashSet;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LongHashSetTest {
+
+    @Test
+    void testAddsAndRemovesUniqueValuesIncludingZero() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(5L));
+        assertTrue(set.add(0L));
+        assertTrue(set.add(3L));
+        assertFalse(set.add(3L));
+        assertFalse(set.add(0L));
+
+        long[] values = set.toLongArray();
+        Arrays.sort(values);
+        assertArrayEquals(new long[] {0, 3, 5}, values);
+        assertTrue(set.contains(0L));
+        assertFalse(set.contains(4L));
+        assertTrue(set.remove(0L));
+        assertTrue(set.remove(3L));
+        assertFalse(set.remove(3L));
+        assertArrayEquals(new long[] {5}, set.toLongArray());
+    }
+
+    @Test
+    void testBehavesAsSetOfLongs() {
+        LongHashSet set = new LongHashSet(List.of(3L, 1L, 3L, 2L));
+
+        assertEquals(Set.of(1L, 2L, 3L), set);
+        assertEquals(Set.of(1L, 2L, 3L).hashCode(), set.hashCode());
+        assertFalse(set.contains("1"));
+        assertEquals(Set.of(1L, 2L, 3L), new HashSet<>(set));
+    }
+
+    @Test
+    void testRandomLikesAndUnlikesMatchHashSet() {
+        Random random = new Random(42);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        // Узкий диапазон значений даёт длинные цепочки коллизий и частые удаления из их середины
+        for (int i = 0; i < 200_000; i++) {
+            long value = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = 0; value < 5_000; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+
+        set.trimToSize();
+        assertEquals(expected, set);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.yandex.practicum.filmorate;
+
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Считает количество SQL-выражений, отправленных через источник данных.
+ * Соединения берутся из текущей тестовой транзакции, поэтому хранилище поверх этого
+ * источника видит те же данные, что и хранилища из контекста.
+ */
+public class QueryCountingDataSource extends TransactionAwareDataSourceProxy {
+    private static final Set<String> STATEMENT_METHODS = Set.of("prepareStatement", "createStatement", "prepareCall");
+
+    private final AtomicInteger queryCount = new AtomicInteger();
+
+    public QueryCountingDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection connection = super.getConnection();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (STATEMENT_METHODS.contains(method.getName())) {
+                        queryCount.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    public int getQueryCount() {
+        return queryCount.get();
+    }
+
+    public void reset() {
+        queryCount.set(0);
+    }
+}
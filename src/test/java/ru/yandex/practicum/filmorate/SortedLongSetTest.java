@@ -0,0 +1,97 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.storage.SortedLongSet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SortedLongSetTest {
+
+    @Test
+    void testKeepsValuesSortedAndUnique() {
+        SortedLongSet set = new SortedLongSet();
+
+        assertTrue(set.add(5L));
+        assertTrue(set.add(1L));
+        assertTrue(set.add(3L));
+        assertFalse(set.add(3L));
+
+        assertArrayEquals(new long[] {1, 3, 5}, set.toLongArray());
+        assertTrue(set.contains(3L));
+        assertFalse(set.contains(4L));
+        assertTrue(set.remove(3L));
+        assertFalse(set.remove(3L));
+        assertArrayEquals(new long[] {1, 5}, set.toLongArray());
+    }
+
+    @Test
+    void testBehavesAsSetOfLongs() {
+        SortedLongSet set = new SortedLongSet(List.of(3L, 1L, 3L, 2L));
+
+        assertEquals(Set.of(1L, 2L, 3L), set);
+        assertEquals(Set.of(1L, 2L, 3L).hashCode(), set.hashCode());
+        assertFalse(set.contains("1"));
+
+        Iterator<Long> iterator = set.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == 2L) {
+                iterator.remove();
+            }
+        }
+        assertEquals(List.of(1L, 3L), new ArrayList<>(set));
+    }
+
+    @Test
+    void testIntersectMatchesTreeSet() {
+        Random random = new Random(42);
+        SortedLongSet left = new SortedLongSet();
+        SortedLongSet right = new SortedLongSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        TreeSet<Long> rightValues = new TreeSet<>();
+        for (int i = 0; i < 20_000; i++) {
+            long value = random.nextInt(50_000);
+            left.add(value);
+            expected.add(value);
+            long other = random.nextInt(50_000);
+            right.add(other);
+            rightValues.add(other);
+        }
+        expected.retainAll(rightValues);
+
+        List<Long> common = new ArrayList<>();
+        int found = left.intersect(right, common::add);
+
+        assertEquals(expected.size(), found);
+        assertEquals(new ArrayList<>(expected), common);
+    }
+
+    @Test
+    void testCountCommonOfSkewedSetsMatchesIntersect() {
+        Random random = new Random(7);
+        SortedLongSet small = new SortedLongSet();
+        SortedLongSet large = new SortedLongSet();
+        for (int i = 0; i < 100_000; i++) {
+            large.add(random.nextInt(300_000));
+        }
+        for (int i = 0; i < 50; i++) {
+            small.add(random.nextInt(300_000));
+        }
+        int expected = small.intersect(large, value -> {
+        });
+
+        assertEquals(expected, small.countCommon(large));
+        assertEquals(expected, large.countCommon(small));
+        assertEquals(large.size(), large.countCommon(large));
+        assertEquals(0, small.countCommon(new SortedLongSet()));
+    }
+}
@@ -1,19 +1,33 @@
 package ru.yandex.practicum.filmorate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.controller.GlobalExceptionHandler;
 import ru.yandex.practicum.filmorate.controller.UserController;
 import ru.yandex.practicum.filmorate.exception.ConditionsNotMetException;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.PreconditionFailedException;
 import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.model.UserPatch;
 import ru.yandex.practicum.filmorate.service.UserService;
 import ru.yandex.practicum.filmorate.storage.InMemoryUserStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
 
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class UserControllerTest {
     private UserController userController;
@@ -24,8 +38,8 @@ public class UserControllerTest {
     @BeforeEach
     void setUp() {
         userStorage = new InMemoryUserStorage();
-        userService = new UserService(userStorage);
-        userController = new UserController(userService);
+        userService = new UserService(userStorage, 500);
+        userController = new UserController(userService, new ObjectMapper().findAndRegisterModules());
     }
 
     @Test
@@ -43,6 +57,58 @@ public class UserControllerTest {
         assertEquals("Некорректный email", exception.getMessage());
     }
 
+    @Test
+    void testUpdateWithoutIdIsNotFound() throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(userController)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        mockMvc.perform(put("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"email\":\"email@example.com\",\"login\":\"login\",\"name\":\"name\"," +
+                                "\"birthday\":\"2000-01-01\"}"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("Пользователь с id null не найден"));
+    }
+
+    @Test
+    void testUserUpdatesAreConditionalOnVersion() {
+        User user = new User();
+        user.setEmail("email@example.com");
+        user.setLogin("login");
+        user.setName("name");
+        user.setBirthday(LocalDate.of(2000, 1, 1));
+        User created = userService.add(user);
+        String eTag = UserService.eTag(created);
+        assertEquals("\"0\"", eTag);
+
+        UserPatch rename = new UserPatch();
+        rename.setName("renamed");
+        User patched = userService.patch(created.getId(), rename, List.of(eTag));
+        assertEquals("renamed", patched.getName());
+        assertEquals("email@example.com", patched.getEmail());
+        assertEquals(1L, patched.getVersion());
+
+        UserPatch stale = new UserPatch();
+        stale.setEmail("stale@example.com");
+        assertThrows(PreconditionFailedException.class, () -> userService.patch(created.getId(), stale, List.of(eTag)));
+        assertThrows(ValidationException.class, () -> {
+            UserPatch invalid = new UserPatch();
+            invalid.setEmail("invalid");
+            userService.patch(created.getId(), invalid, List.of("*"));
+        });
+
+        User replacement = new User();
+        replacement.setId(created.getId());
+        replacement.setEmail("new@example.com");
+        replacement.setLogin("login");
+        replacement.setName("name");
+        replacement.setBirthday(LocalDate.of(2000, 1, 1));
+        assertEquals(2L, userService.update(replacement, List.of("\"1\"")).getVersion());
+        assertThrows(PreconditionFailedException.class, () -> userService.update(replacement, List.of("\"1\"")));
+        assertEquals("new@example.com", userService.getById(created.getId()).getEmail());
+    }
+
     @Test
     void testCreateUserWithEmptyLogin() {
         User user = new User();
@@ -88,4 +154,60 @@ public class UserControllerTest {
         assertEquals("name", createdUser.getName());
         assertEquals(LocalDate.of(2000, 1, 1), createdUser.getBirthday());
     }
+
+    @Test
+    void testCommonFriendsAreIntersectedInStorage() {
+        User alice = userController.create(validUser("alice")).getBody();
+        User bob = userController.create(validUser("bob")).getBody();
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            User friend = userStorage.add(validUser("friend" + i));
+            if (i % 2 == 0) {
+                userController.add(alice.getId(), friend.getId());
+            }
+            if (i % 3 == 0) {
+                userController.add(bob.getId(), friend.getId());
+            }
+            if (i % 6 == 0) {
+                expected.add(friend.getId());
+            }
+        }
+
+        List<User> common = userController.getCommon(alice.getId(), bob.getId()).getBody();
+
+        assertEquals(expected, common.stream().map(User::getId).toList());
+        assertThrows(NotFoundException.class, () -> userController.getCommon(alice.getId(), 100_000L));
+    }
+
+    @Test
+    void testFriendSuggestionsAreRankedByMutualFriends() {
+        User alice = userController.create(validUser("alice")).getBody();
+        User bob = userController.create(validUser("bob")).getBody();
+        User carol = userController.create(validUser("carol")).getBody();
+        User dave = userController.create(validUser("dave")).getBody();
+        User erin = userController.create(validUser("erin")).getBody();
+        userController.add(alice.getId(), bob.getId());
+        userController.add(alice.getId(), carol.getId());
+        userController.add(bob.getId(), dave.getId());
+        userController.add(carol.getId(), dave.getId());
+        userController.add(carol.getId(), erin.getId());
+        userController.add(bob.getId(), alice.getId());
+        userController.add(carol.getId(), bob.getId());
+
+        List<User> suggestions = userController.getSuggestions(alice.getId(), 10).getBody();
+
+        assertEquals(List.of(dave.getId(), erin.getId()), suggestions.stream().map(User::getId).toList());
+        assertEquals(1, userController.getSuggestions(alice.getId(), 1).getBody().size());
+        assertThrows(ConditionsNotMetException.class, () -> userController.getSuggestions(alice.getId(), 0));
+        assertThrows(NotFoundException.class, () -> userController.getSuggestions(100_000L, 10));
+    }
+
+    private User validUser(String login) {
+        User user = new User();
+        user.setEmail(login + "@example.com");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(2000, 1, 1));
+        return user;
+    }
 }